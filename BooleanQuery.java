@@ -0,0 +1,175 @@
+package webdata;
+
+import java.util.ArrayList;
+
+/**
+ * a boolean expression over tokens and product ids, e.g.
+ * and(token("coffee"), or(token("strong"), token("bold")), not(productId("B001E4KFG0")))
+ * a token that ends with * matches every token with that prefix, e.g. token("kindl*")
+ * the expression is evaluated lazily over the posting lists with IndexReader.getReviewsMatching
+ */
+public class BooleanQuery {
+    private enum Type {TOKEN, PREFIX, PRODUCT_ID, AND, OR, NOT}
+
+    private Type type;
+    private String term;
+    private BooleanQuery[] clauses;
+
+    private BooleanQuery(Type type, String term, BooleanQuery[] clauses) {
+        this.type = type;
+        this.term = term;
+        this.clauses = clauses;
+    }
+
+    public static BooleanQuery token(String token) {
+        if (token.endsWith("*")) {
+            return prefix(token.substring(0, token.length() - 1));
+        }
+        return new BooleanQuery(Type.TOKEN, token, null);
+    }
+
+    public static BooleanQuery prefix(String prefix) {
+        return new BooleanQuery(Type.PREFIX, prefix, null);
+    }
+
+    public static BooleanQuery productId(String productId) {
+        return new BooleanQuery(Type.PRODUCT_ID, productId, null);
+    }
+
+    public static BooleanQuery and(BooleanQuery... clauses) {
+        return new BooleanQuery(Type.AND, null, clauses);
+    }
+
+    public static BooleanQuery or(BooleanQuery... clauses) {
+        return new BooleanQuery(Type.OR, null, clauses);
+    }
+
+    public static BooleanQuery not(BooleanQuery clause) {
+        return new BooleanQuery(Type.NOT, null, new BooleanQuery[]{clause});
+    }
+
+    /**
+     * builds the cursor tree of the expression. the NOT clauses of an AND are not iterated, they are only
+     * advanced to the candidates of the positive clauses
+     */
+    DocIdCursor cursor(IndexReader reader) {
+        switch (this.type) {
+            case TOKEN:
+                return reader.getTokenCursor(this.term);
+            case PREFIX:
+                return reader.getReviewsWithPrefix(this.term);
+            case PRODUCT_ID:
+                return reader.getProductCursor(this.term);
+            case NOT:
+                return new ComplementCursor(this.clauses[0].cursor(reader), reader.getNumberOfReviews());
+            case OR:
+                DocIdCursor[] cursors = new DocIdCursor[this.clauses.length];
+                for (int i = 0; i < this.clauses.length; i++) {
+                    cursors[i] = this.clauses[i].cursor(reader);
+                }
+                return cursors.length == 1 ? cursors[0] : new DisjunctionCursor(cursors);
+            default:
+                ArrayList<DocIdCursor> required = new ArrayList<>();
+                ArrayList<DocIdCursor> excluded = new ArrayList<>();
+                for (BooleanQuery clause : this.clauses) {
+                    if (clause.type == Type.NOT) {
+                        excluded.add(clause.clauses[0].cursor(reader));
+                    }
+                    else {
+                        required.add(clause.cursor(reader));
+                    }
+                }
+                DocIdCursor excludedCursor = excluded.isEmpty() ? null : excluded.size() == 1 ? excluded.get(0) :
+                        new DisjunctionCursor(excluded.toArray(new DocIdCursor[0]));
+                if (required.isEmpty()) {
+                    return new ComplementCursor(excludedCursor, reader.getNumberOfReviews());
+                }
+                DocIdCursor requiredCursor = required.size() == 1 ? required.get(0) :
+                        new ConjunctionCursor(required.toArray(new DocIdCursor[0]));
+                return excludedCursor == null ? requiredCursor : new ExclusionCursor(requiredCursor, excludedCursor);
+        }
+    }
+
+    /**
+     * the reviews of the required cursor that are not in the excluded cursor
+     */
+    private static class ExclusionCursor implements DocIdCursor {
+        private DocIdCursor required;
+        private DocIdCursor excluded;
+
+        ExclusionCursor(DocIdCursor required, DocIdCursor excluded) {
+            this.required = required;
+            this.excluded = excluded;
+        }
+
+        @Override
+        public int docId() {
+            return this.required.docId();
+        }
+
+        @Override
+        public int nextDoc() {
+            return this.skipExcluded(this.required.nextDoc());
+        }
+
+        @Override
+        public int advance(int target) {
+            return this.skipExcluded(this.required.advance(target));
+        }
+
+        private int skipExcluded(int candidate) {
+            while (candidate != NO_MORE_DOCS && this.excluded.advance(candidate) == candidate) {
+                candidate = this.required.nextDoc();
+            }
+            return candidate;
+        }
+
+        @Override
+        public long cost() {
+            return this.required.cost();
+        }
+    }
+
+    /**
+     * all the review ids from 1 to numOfReviews that are not in the excluded cursor
+     */
+    private static class ComplementCursor implements DocIdCursor {
+        private DocIdCursor excluded;
+        private int numOfReviews;
+        private int docId = -1;
+
+        ComplementCursor(DocIdCursor excluded, int numOfReviews) {
+            this.excluded = excluded;
+            this.numOfReviews = numOfReviews;
+        }
+
+        @Override
+        public int docId() {
+            return this.docId;
+        }
+
+        @Override
+        public int nextDoc() {
+            return this.advance(this.docId + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            if (this.docId >= target) {
+                return this.docId;
+            }
+            int candidate = Math.max(target, 1);
+            while (candidate <= this.numOfReviews && this.excluded != null &&
+                    this.excluded.advance(candidate) == candidate) {
+                candidate++;
+            }
+            this.docId = candidate <= this.numOfReviews ? candidate : NO_MORE_DOCS;
+            return this.docId;
+        }
+
+        @Override
+        public long cost() {
+            return this.numOfReviews;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package webdata;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * the reviews that appear in all the given cursors. the cursors are ordered by ascending cost so the
+ * shortest one leads and the others are only advanced (using their skip tables) to its candidates
+ */
+public class ConjunctionCursor implements DocIdCursor {
+    private DocIdCursor[] cursors;
+    private int docId = -1;
+
+    public ConjunctionCursor(DocIdCursor[] cursors) {
+        this.cursors = cursors.clone();
+        Arrays.sort(this.cursors, Comparator.comparingLong(DocIdCursor::cost));
+    }
+
+    @Override
+    public int docId() {
+        return this.docId;
+    }
+
+    @Override
+    public int nextDoc() {
+        return this.doNext(this.cursors[0].nextDoc());
+    }
+
+    @Override
+    public int advance(int target) {
+        if (this.docId >= target) {
+            return this.docId;
+        }
+        return this.doNext(this.cursors[0].advance(target));
+    }
+
+    /**
+     * leapfrogs from the lead candidate until all the cursors agree on one review
+     */
+    private int doNext(int candidate) {
+        int i = 1;
+        while (candidate != NO_MORE_DOCS && i < this.cursors.length) {
+            int other = this.cursors[i].advance(candidate);
+            if (other == candidate) {
+                i++;
+            } else {
+                candidate = this.cursors[0].advance(other);
+                i = 1;
+            }
+        }
+        this.docId = candidate;
+        return candidate;
+    }
+
+    @Override
+    public long cost() {
+        return this.cursors[0].cost();
+    }
+}
@@ -9,6 +9,8 @@ public class Consts {
     static final String DICT_TABLE_PROD_OBJ_FILE = "dictionaryProductTable";
     static final String DICT_STR_PROD_OBJ_FILE = "dictionaryProductString";
     static final String REVIEWS_OBJ_FILE = "reviewsObj";
+    static final String TOKEN_IMPACTS_OBJ_FILE = "tokenImpactsObj";
+    static final String PRODUCT_STATS_OBJ_FILE = "productStatsObj";
 
     static final int DICTIONARY_K = 100;
     static final int B = 20400;
@@ -17,5 +19,12 @@ public class Consts {
     static final int PRODUCT_ID_MERGE_B = 50;
     static final int BLOCK_SIZE = 4096;
     static final int DICT_PRODUCT_ID_K = 10;
+    static final int SKIP_INTERVAL = 128;
+    static final int SKIP_ENTRY_SIZE = 8;
+    static final int SKIP_HEADER_SIZE = 4;
+    static final int REVIEW_ID_THREAD_SHIFT = 28;
+    static final double BM25_K1 = 1.2;
+    static final double BM25_B = 0.75;
+    static final long POSTING_CACHE_BYTES = 64L * 1024 * 1024;
 
 }
@@ -1,20 +1,41 @@
 package webdata;
 
 import java.io.*;
-
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * front coded dictionary in blocks of k tokens. the table file has the number of rows and then a fixed width
+ * row for every token: its posting list pointer, its frequency, the position of its suffix in the string file
+ * and the size of the prefix it shares with the previous token (0 for the head of a block).
+ * the string file has the suffixes one after another as ISO-8859-1 bytes.
+ * the reader maps both files and reads them in place, so opening a dictionary does not depend on its size
+ */
 public class Dictionary {
-
+    static final int ROW_SIZE = 17;
+    private static final int HEADER_SIZE = 4;
+    private static final int POSTING_PTR_OFFSET = 0;
+    private static final int FREQUENCY_OFFSET = 8;
+    private static final int SUFFIX_PTR_OFFSET = 12;
+    private static final int PREFIX_SIZE_OFFSET = 16;
+
+    //used while the index is written
     private int[] frequencies;
     private long[] postingPtrs;
-    private byte[] lengths;
+    private int[] suffixPtrs;
     private byte[] prefixSizes;
-    private int[] tokenPtrs;
-    private String strDict;
+    private byte[] strDict;
+    private String prevToken = "";
+    private int numOfRow = 0;
+
+    //used while the index is read
+    private MappedFile tableFile;
+    private MappedFile strDictFile;
+
     private int strLength = 0;
     private int k;
     private int totalBlocks;
-    private String prevToken = "";
-    private int numOfRow = 0;
     private int tableSize;
 
 
@@ -22,16 +43,25 @@ public class Dictionary {
         this.totalBlocks = (int)Math.ceil(size/(double)k);
         this.frequencies = new int[size];
         this.postingPtrs = new long[size];
-        this.lengths = new byte[size];
+        this.suffixPtrs = new int[size];
         this.prefixSizes = new byte[size];
-        this.tokenPtrs = new int[this.totalBlocks];
+        this.strDict = new byte[Math.max(size, 16)];
         this.k = k;
         this.tableSize = size;
     }
 
+    private Dictionary(int k, MappedFile tableFile, MappedFile strDictFile) {
+        this.k = k;
+        this.tableFile = tableFile;
+        this.strDictFile = strDictFile;
+        this.tableSize = tableFile.getInt(0);
+        this.strLength = (int)strDictFile.size();
+        this.totalBlocks = (int)Math.ceil(this.tableSize/(double)k);
+    }
+
     private static int findCommonPrefixIndex(String s1, String s2){
         int i;
-        for (i = 0; i < s1.length(); i++)
+        for (i = 0; i < Math.min(s1.length(), s2.length()); i++)
         {
             if (s1.charAt(i) != s2.charAt(i))
             {
@@ -44,243 +74,323 @@ public class Dictionary {
     /**
      * creates the dictionary string and the table with the terms info
      */
-    public void addDictTableRow(String token, int frequency, long postingPtr, int indexInTokens, boolean isProductId) {
-        int prefixIndex;
-        int positionInBlock = this.numOfRow % this.k;
-        int length = token.length();
-        if(positionInBlock == 0 ){
-            this.createRow(frequency, postingPtr, (byte)length, (byte)0, strLength);
-            strLength += length;
+    public void addDictTableRow(String token, int frequency, long postingPtr) {
+        //the prefix size is kept in one unsigned byte
+        int prefixIndex = this.numOfRow % this.k == 0 ? 0 : Math.min(findCommonPrefixIndex(this.prevToken, token), 255);
+        byte[] suffix = token.substring(prefixIndex).getBytes(StandardCharsets.ISO_8859_1);
+        if (this.strLength + suffix.length > this.strDict.length) {
+            this.strDict = Arrays.copyOf(this.strDict, Math.max(this.strDict.length * 2, this.strLength + suffix.length));
         }
-        else{
-            prefixIndex = findCommonPrefixIndex(this.prevToken, token);
-            if (positionInBlock == this.k - 1){
-                this.createRow(frequency, postingPtr, (byte)0, (byte)prefixIndex, -1);
-            }
-            else {
-                this.createRow(frequency, postingPtr, (byte)length, (byte)prefixIndex, -1);
-            }
-            String newToken = token.substring(prefixIndex);
-            if (isProductId){
-                IndexWriter.productIdTokens.set(indexInTokens, newToken);
-            }
-            else {
-                IndexWriter.tokens.set(indexInTokens, newToken);
-            }
-            strLength += newToken.length();
-        }
-        this.prevToken = token;
-    }
-
-
-    private void createRow(int frequency, long postingPtr, byte length, byte prefixSize, int tokenPtr){
+        System.arraycopy(suffix, 0, this.strDict, this.strLength, suffix.length);
         this.frequencies[this.numOfRow] = frequency;
         this.postingPtrs[this.numOfRow] = postingPtr;
-        this.lengths[this.numOfRow] = length;
-        this.prefixSizes[this.numOfRow] = prefixSize;
-        if (tokenPtr != -1){
-            this.tokenPtrs[this.numOfRow /this.k] = tokenPtr;
-        }
+        this.suffixPtrs[this.numOfRow] = this.strLength;
+        this.prefixSizes[this.numOfRow] = (byte)prefixIndex;
+        this.strLength += suffix.length;
         this.numOfRow++;
+        this.prevToken = token;
     }
 
-    public void writeObject(String tableFileName, String strDictFileName, String dirName, boolean isProductId) throws IOException {
-
-        int positionInBlock;
-        File f1 = new File(dirName + File.separator + tableFileName);
-        if (f1.exists()) {
-            f1.delete();
-        }
-        File f2 = new File(dirName + File.separator + strDictFileName);
-        if (f2.exists()) {
-            f2.delete();
-        }
-
-        RandomAccessFile tableFile = new RandomAccessFile(dirName + File.separator + tableFileName, "rw");
-        FileWriter fw = new FileWriter(dirName + File.separator + strDictFileName);
-        BufferedWriter strDictFile = new BufferedWriter(fw);
-        if (isProductId){
-            strDictFile.write(String.join("", IndexWriter.productIdTokens));
-        }
-        else {
-            strDictFile.write(String.join("", IndexWriter.tokens));
-        }
+    public void writeObject(String tableFileName, String strDictFileName, String dirName) throws IOException {
+        BufferedOutputStream strDictFile = new BufferedOutputStream(new FileOutputStream(
+                dirName + File.separator + strDictFileName));
+        strDictFile.write(this.strDict, 0, this.strLength);
         strDictFile.close();
-        tableFile.writeInt(this.tableSize);
-        for (int i = 0; i < this.tableSize; i++) {
-            positionInBlock = i % this.k;
-            tableFile.writeInt(this.frequencies[i]);
-            tableFile.writeLong(this.postingPtrs[i]);
 
-            if (positionInBlock == 0){
-                tableFile.write(this.lengths[i]);
-                tableFile.writeInt(this.tokenPtrs[i/this.k]);
-
-            }
-            else if (positionInBlock != this.k-1){
-                tableFile.write(this.lengths[i]);
-                tableFile.write(this.prefixSizes[i]);
-            }
-            else {
-                tableFile.write(this.prefixSizes[i]);
-            }
+        BufferedOutputStream tableFile = new BufferedOutputStream(new FileOutputStream(
+                dirName + File.separator + tableFileName));
+        ByteBuffer row = ByteBuffer.allocate(ROW_SIZE);
+        row.putInt(this.tableSize);
+        tableFile.write(row.array(), 0, HEADER_SIZE);
+        for (int i = 0; i < this.tableSize; i++) {
+            row.clear();
+            row.putLong(this.postingPtrs[i]);
+            row.putInt(this.frequencies[i]);
+            row.putInt(this.suffixPtrs[i]);
+            row.put(this.prefixSizes[i]);
+            tableFile.write(row.array(), 0, ROW_SIZE);
         }
         tableFile.close();
-
     }
 
 
-   public static Dictionary readObject(String TableFileName, String strDictFileName, int k, String dir)
-           throws IOException {
-       int frequency, tokenPtr, positionInBlock;
-       long postingPtr;
-       byte length, prefixSize;
-       RandomAccessFile tableFile = new RandomAccessFile(dir + File.separator + TableFileName, "r");
-       Dictionary dictionary = new Dictionary(k, tableFile.readInt());
-
-       RandomAccessFile strDict = new RandomAccessFile(dir + File.separator + strDictFileName, "r");
-       dictionary.setStrDict(strDict.readLine());
-       strDict.close();
-
-       for (int i = 0; i < dictionary.tableSize; i++){
-           positionInBlock = i % k;
-           length = 0;
-           prefixSize = 0;
-           tokenPtr = -1;
-           frequency = tableFile.readInt();
-           postingPtr = tableFile.readLong();
+    /**
+     * maps the dictionary files, nothing is read until the dictionary is queried
+     */
+    public static Dictionary readObject(String tableFileName, String strDictFileName, int k, String dir)
+            throws IOException {
+        return new Dictionary(k, new MappedFile(tableFileName, dir), new MappedFile(strDictFileName, dir));
+    }
 
-           if (positionInBlock < k-1){
-               length = tableFile.readByte();
-           }
-           if (positionInBlock > 0){
-               prefixSize = tableFile.readByte();
-           }
-           else{
-               tokenPtr = tableFile.readInt();
-           }
+    private long getRowPtr(int index) {
+        return HEADER_SIZE + (long)index * ROW_SIZE;
+    }
 
-           dictionary.createRow(frequency, postingPtr, length, prefixSize, tokenPtr);
-       }
+    private int getSuffixPtr(int index) {
+        return this.tableFile.getInt(this.getRowPtr(index) + SUFFIX_PTR_OFFSET);
+    }
 
-       tableFile.close();
-       return dictionary;
+    private int getPrefixSize(int index) {
+        return this.tableFile.get(this.getRowPtr(index) + PREFIX_SIZE_OFFSET) & 0xFF;
+    }
 
-   }
+    private int getSuffixEnd(int index) {
+        return index + 1 == this.tableSize ? this.strLength : this.getSuffixPtr(index + 1);
+    }
 
-    public void setStrDict(String strDict) {
-        this.strDict = strDict;
+    /**
+     * compares the head of the block with the token, like String.compareTo. the head of a block shares no prefix,
+     * so it is the whole suffix of its row and is compared in the string file
+     */
+    private int compareBlockHead(int block, String token) {
+        int start = this.getSuffixPtr(block * this.k);
+        int length = this.getSuffixEnd(block * this.k) - start;
+        int minLength = Math.min(length, token.length());
+        for (int i = 0; i < minLength; i++) {
+            int diff = (this.strDictFile.get(start + i) & 0xFF) - token.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - token.length();
     }
 
     private int findBlock(String token) {
-        int left = 0, middle = 0;
-        int right = this.totalBlocks - 1;
-        String currToken;
-
-        while (left <= right) {
-            middle = (left + right) / 2;
-            currToken = this.getBlockHead(middle * this.k);
-            if (currToken.compareTo(token) > 0) {
+        int left = 0, right = this.totalBlocks - 1;
+        //the last block whose head is not greater than the token
+        while (left < right) {
+            int middle = (left + right + 1) >>> 1;
+            if (this.compareBlockHead(middle, token) > 0) {
                 right = middle - 1;
-            } else if (currToken.compareTo(token) < 0) {
-                left = middle + 1;
-            }
-            else{
-                return middle;
+            } else {
+                left = middle;
             }
         }
-        if (right == middle - 1){
-            middle--;
-        }
-        else{
-            if (this.totalBlocks == (middle+1)){
-                return middle;
-            }
-            currToken = this.getBlockHead((middle+1) * this.k);
-            if (currToken.compareTo(token) < 0){
-                middle++;
-            }
-        }
-        return middle;
+        return left;
     }
 
-    public String getBlockHead(int position){
-        int tokenPtr = this.tokenPtrs[position/this.k];
-        int length = this.lengths[position];
-        return this.strDict.substring(tokenPtr, tokenPtr + length);
+    /**
+     * returns the token in the given row, decoded from the head of its block
+     */
+    public String getToken(int index) {
+        StringBuilder token = new StringBuilder();
+        for (int row = index - index % this.k; row <= index; row++) {
+            this.decodeRow(row, token);
+        }
+        return token.toString();
     }
 
-    public int getTokenPtr(int index) {
-        return this.tokenPtrs[index];
+    /**
+     * replaces the previous token in token by the token in the given row: keeps the prefix they share
+     * and appends the suffix of the row
+     */
+    private void decodeRow(int index, StringBuilder token) {
+        token.setLength(this.getPrefixSize(index));
+        int end = this.getSuffixEnd(index);
+        for (int i = this.getSuffixPtr(index); i < end; i++) {
+            token.append((char)(this.strDictFile.get(i) & 0xFF));
+        }
     }
 
-    public byte getPrefixSize(int index) {
-        return this.prefixSizes[index];
-    }
-    public short getLength(int index) {
-        return this.lengths[index];
+    public int getSize() {
+        return this.tableSize;
     }
 
     public int getFrequency(int index) {
-        return frequencies[index];
+        return this.tableFile.getInt(this.getRowPtr(index) + FREQUENCY_OFFSET);
     }
 
     public long getPostingPtr(int index) {
-        return postingPtrs[index];
+        return this.tableFile.getLong(this.getRowPtr(index) + POSTING_PTR_OFFSET);
     }
 
-    public String getNextToken(int positionNextTokenInStr, String currToken, int positionNextTokenInTable){
-        String nextToken;
 
-        if ((positionNextTokenInTable % this.k) < this.k - 1){
-            nextToken = currToken.substring(0, this.prefixSizes[positionNextTokenInTable]) +
-                    this.strDict.substring(positionNextTokenInStr, positionNextTokenInStr +
-                            this.lengths[positionNextTokenInTable] - this.prefixSizes[positionNextTokenInTable]);
-        }
-        else{
-            if (positionNextTokenInTable + 1 == this.tableSize){
-                //last row of table, last row of block
-                nextToken = currToken.substring(0, this.prefixSizes[positionNextTokenInTable]) + this.strDict.substring(
-                        positionNextTokenInStr);
-            }
-            else{
-                nextToken = currToken.substring(0, this.prefixSizes[positionNextTokenInTable]) + this.strDict.substring(
-                        positionNextTokenInStr, this.tokenPtrs[(positionNextTokenInTable + 1)/this.k]);
-            }
-        }
-        return nextToken;
+    /**
+     * returns the row of the token, -1 if it is not in the dictionary
+     */
+    public int findTokenIndex(String token) {
+        int row = this.search(token);
+        return row >= 0 ? row : -1;
     }
 
+    /**
+     * returns the first row whose token is not smaller than the given token, the size of the dictionary
+     * if there is none. the rows from findFirstRow(prefix) up to the first row that does not start with
+     * prefix are all the tokens with that prefix
+     */
+    public int findFirstRow(String token) {
+        int row = this.search(token);
+        return row >= 0 ? row : -row - 1;
+    }
 
-    //works with the algorithm
-    public int findTokenIndex(String token) {
-        int positionInTable, positionInStr, blockIndex;
-        String currToken;
-        blockIndex = this.findBlock(token);
-        if (blockIndex == -1){
+    /**
+     * returns the row of the token if it is in the dictionary, and otherwise (-(the first greater row) - 1),
+     * like Arrays.binarySearch. the rows of the block are compared with the token in place: matched is the length
+     * of the prefix the current row shares with the token, and a row that keeps less of the previous row than
+     * matched is already greater than the token
+     */
+    private int search(String token) {
+        if (this.tableSize == 0) {
             return -1;
         }
-        positionInTable = blockIndex * this.k;
-        currToken = this.getBlockHead(positionInTable);
-        positionInStr = this.tokenPtrs[blockIndex];
-        if (currToken.equals(token)){
-            return positionInTable;
+        int block = this.findBlock(token);
+        int positionInTable = block * this.k;
+        int blockEnd = Math.min(positionInTable + this.k, this.tableSize);
+        if (this.compareBlockHead(block, token) > 0) {
+            //only the first block can start after the token
+            return -positionInTable - 1;
         }
-        while(positionInTable % this.k < this.k){
-
-            if (positionInTable + 1 == this.tableSize){
-                break;
+        int start = this.getSuffixPtr(positionInTable);
+        int headLength = this.getSuffixEnd(positionInTable) - start;
+        int matched = 0;
+        while (matched < headLength && matched < token.length() &&
+                (this.strDictFile.get(start + matched) & 0xFF) == token.charAt(matched)) {
+            matched++;
+        }
+        int currLength = headLength;
+        while (true) {
+            if (matched == token.length() && currLength == token.length()) {
+                return positionInTable;
             }
-            positionInStr += this.lengths[positionInTable] - this.prefixSizes[positionInTable];
+            //the current row is smaller than the token, move to the next row
             positionInTable++;
-            currToken = this.getNextToken(positionInStr, currToken, positionInTable);
-
-            if (currToken.equals(token)){
-                return positionInTable;
+            if (positionInTable == blockEnd) {
+                return -positionInTable - 1;
+            }
+            int prefixSize = this.getPrefixSize(positionInTable);
+            if (prefixSize < matched) {
+                return -positionInTable - 1;
+            }
+            int suffixPtr = this.getSuffixPtr(positionInTable);
+            int suffixLength = this.getSuffixEnd(positionInTable) - suffixPtr;
+            currLength = prefixSize + suffixLength;
+            if (prefixSize > matched) {
+                //the row has the same character as the previous row where it differs from the token
+                continue;
+            }
+            int i = 0;
+            while (i < suffixLength && matched < token.length()) {
+                int diff = (this.strDictFile.get(suffixPtr + i) & 0xFF) - token.charAt(matched);
+                if (diff > 0) {
+                    return -positionInTable - 1;
+                }
+                if (diff < 0) {
+                    break;
+                }
+                i++;
+                matched++;
+            }
+            if (matched == token.length() && currLength > token.length()) {
+                //the token is a prefix of the row
+                return -positionInTable - 1;
             }
         }
-        return -1;
+    }
 
+    /**
+     * returns the rows of all the tokens within maxDistance insertions, deletions or substitutions of the token,
+     * in increasing order. the rows are walked in sorted order with one row of the edit distance table for every
+     * character of the current row, so a row only computes the table rows after the prefix it shares with the
+     * previous one. once a prefix is more than maxDistance edits away from every prefix of the token, all the rows
+     * that start with it are skipped, and a whole range of blocks that start with it is jumped over with findFirstRow
+     */
+    public int[] findSimilarRows(String token, int maxDistance) {
+        int tokenLength = token.length();
+        int width = tokenLength + 1;
+        char[] chars = new char[Tokenizer.MAX_TOKEN_LENGTH];
+        int[] distances = new int[(chars.length + 1) * width];
+        for (int j = 0; j < width; j++) {
+            distances[j] = j;
+        }
+        int[] rows = new int[16];
+        int numOfRows = 0;
+        //chars[0, validDepth) is the start of the current row, and the table rows up to validDepth are computed
+        int validDepth = 0;
+        //if not -1, the rows that start with chars[0, prunedDepth) are skipped
+        int prunedDepth = -1;
+        boolean jumped = false;
+        int row = 0;
+        while (row < this.tableSize) {
+            int shared, length;
+            if (jumped) {
+                String rowToken = this.getToken(row);
+                length = rowToken.length();
+                shared = 0;
+                while (shared < Math.min(length, validDepth) && chars[shared] == rowToken.charAt(shared)) {
+                    shared++;
+                }
+                if (length > chars.length) {
+                    chars = Arrays.copyOf(chars, length);
+                    distances = Arrays.copyOf(distances, (length + 1) * width);
+                }
+                rowToken.getChars(shared, length, chars, shared);
+                jumped = false;
+            }
+            else if (row % this.k == 0) {
+                int start = this.getSuffixPtr(row);
+                length = this.getSuffixEnd(row) - start;
+                shared = 0;
+                while (shared < Math.min(length, validDepth) && chars[shared] == (this.strDictFile.get(start + shared) & 0xFF)) {
+                    shared++;
+                }
+                if (prunedDepth != -1 && shared >= prunedDepth) {
+                    //the block starts with the pruned prefix, jump to the first row after all the rows with the prefix
+                    String pruned = new String(chars, 0, prunedDepth - 1) + (char)(chars[prunedDepth - 1] + 1);
+                    row = this.findFirstRow(pruned);
+                    jumped = true;
+                    continue;
+                }
+                if (length > chars.length) {
+                    chars = Arrays.copyOf(chars, length);
+                    distances = Arrays.copyOf(distances, (length + 1) * width);
+                }
+                for (int i = shared; i < length; i++) {
+                    chars[i] = (char)(this.strDictFile.get(start + i) & 0xFF);
+                }
+            }
+            else {
+                shared = this.getPrefixSize(row);
+                if (prunedDepth != -1 && shared >= prunedDepth) {
+                    row++;
+                    continue;
+                }
+                int suffixPtr = this.getSuffixPtr(row);
+                length = shared + this.getSuffixEnd(row) - suffixPtr;
+                if (length > chars.length) {
+                    chars = Arrays.copyOf(chars, length);
+                    distances = Arrays.copyOf(distances, (length + 1) * width);
+                }
+                for (int i = shared; i < length; i++) {
+                    chars[i] = (char)(this.strDictFile.get(suffixPtr + i - shared) & 0xFF);
+                }
+            }
+            prunedDepth = -1;
+            validDepth = Math.min(validDepth, shared);
+            for (int depth = validDepth + 1; depth <= length; depth++) {
+                int current = depth * width, previous = current - width;
+                int minDistance = distances[current] = depth;
+                for (int j = 1; j < width; j++) {
+                    int distance = Math.min(distances[previous + j], distances[current + j - 1]) + 1;
+                    distance = Math.min(distance, distances[previous + j - 1] +
+                            (chars[depth - 1] == token.charAt(j - 1) ? 0 : 1));
+                    distances[current + j] = distance;
+                    minDistance = Math.min(minDistance, distance);
+                }
+                validDepth = depth;
+                if (minDistance > maxDistance) {
+                    prunedDepth = depth;
+                    break;
+                }
+            }
+            if (prunedDepth == -1 && distances[length * width + tokenLength] <= maxDistance) {
+                if (numOfRows == rows.length) {
+                    rows = Arrays.copyOf(rows, numOfRows * 2);
+                }
+                rows[numOfRows++] = row;
+            }
+            row++;
+        }
+        return Arrays.copyOf(rows, numOfRows);
     }
 
 }
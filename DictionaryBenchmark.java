@@ -0,0 +1,140 @@
+package webdata;
+
+import java.io.IOException;
+
+/**
+ * measures the lookups per second of Dictionary.findTokenIndex on the token and the product dictionaries of an
+ * index, against the lookup it replaced, which built a String for every block head of the binary search and
+ * rebuilt every row of the block in a StringBuilder. the old lookup runs over heap copies of the front coded
+ * rows. every row is looked up, and a miss next to every row. usage: DictionaryBenchmark indexDir.
+ * exits with 1 if a lookup returns a wrong row
+ */
+public class DictionaryBenchmark {
+    private static final int ROUNDS = 15;
+
+    /**
+     * the front coded rows of a dictionary in the layout the old lookup read them from
+     */
+    private static class StringLookup {
+        private int k;
+        private int size;
+        private int[] prefixSizes;
+        private int[] suffixStarts;
+        private byte[] suffixes;
+
+        StringLookup(Dictionary dictionary, int k) {
+            this.k = k;
+            this.size = dictionary.getSize();
+            this.prefixSizes = new int[this.size];
+            this.suffixStarts = new int[this.size + 1];
+            StringBuilder suffixes = new StringBuilder();
+            String prevToken = "";
+            for (int row = 0; row < this.size; row++) {
+                String token = dictionary.getToken(row);
+                int prefixSize = 0;
+                if (row % k != 0) {
+                    while (prefixSize < Math.min(Math.min(token.length(), prevToken.length()), 255) &&
+                            token.charAt(prefixSize) == prevToken.charAt(prefixSize)) {
+                        prefixSize++;
+                    }
+                }
+                this.prefixSizes[row] = prefixSize;
+                this.suffixStarts[row] = suffixes.length();
+                suffixes.append(token, prefixSize, token.length());
+                prevToken = token;
+            }
+            this.suffixStarts[this.size] = suffixes.length();
+            this.suffixes = new byte[suffixes.length()];
+            for (int i = 0; i < this.suffixes.length; i++) {
+                this.suffixes[i] = (byte)suffixes.charAt(i);
+            }
+        }
+
+        private String getBlockHead(int row) {
+            char[] head = new char[this.suffixStarts[row + 1] - this.suffixStarts[row]];
+            for (int i = 0; i < head.length; i++) {
+                head[i] = (char)(this.suffixes[this.suffixStarts[row] + i] & 0xFF);
+            }
+            return new String(head);
+        }
+
+        private int findBlock(String token) {
+            int left = 0, right = (this.size - 1) / this.k;
+            while (left < right) {
+                int middle = (left + right + 1) >>> 1;
+                if (this.getBlockHead(middle * this.k).compareTo(token) > 0) {
+                    right = middle - 1;
+                } else {
+                    left = middle;
+                }
+            }
+            return left;
+        }
+
+        int findTokenIndex(String token) {
+            if (this.size == 0) {
+                return -1;
+            }
+            int row = this.findBlock(token) * this.k;
+            int blockEnd = Math.min(row + this.k, this.size);
+            StringBuilder currToken = new StringBuilder();
+            for (; row < blockEnd; row++) {
+                currToken.setLength(this.prefixSizes[row]);
+                for (int i = this.suffixStarts[row]; i < this.suffixStarts[row + 1]; i++) {
+                    currToken.append((char)(this.suffixes[i] & 0xFF));
+                }
+                if (token.contentEquals(currToken)) {
+                    return row;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static void run(String name, Dictionary dictionary, int k) {
+        int size = dictionary.getSize();
+        String[] queries = new String[2 * size];
+        for (int row = 0; row < size; row++) {
+            queries[2 * row] = dictionary.getToken(row);
+            //no token has an underscore, so this is a miss that sorts right after the row
+            queries[2 * row + 1] = queries[2 * row] + "_";
+        }
+        StringLookup stringLookup = new StringLookup(dictionary, k);
+        for (int i = 0; i < queries.length; i++) {
+            int expected = i % 2 == 0 ? i / 2 : -1;
+            if (dictionary.findTokenIndex(queries[i]) != expected || stringLookup.findTokenIndex(queries[i]) != expected) {
+                System.err.println(name + ": wrong row for " + queries[i]);
+                System.exit(1);
+            }
+        }
+        long bestTime = Long.MAX_VALUE, bestStringTime = Long.MAX_VALUE;
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (String query : queries) {
+                sink += stringLookup.findTokenIndex(query);
+            }
+            bestStringTime = Math.min(bestStringTime, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (String query : queries) {
+                sink += dictionary.findTokenIndex(query);
+            }
+            bestTime = Math.min(bestTime, System.nanoTime() - start);
+        }
+        System.out.printf("%s, k=%d, %d rows: with Strings %.0f lookups/s, findTokenIndex %.0f lookups/s (%d)%n",
+                name, k, size, queries.length * 1e9 / bestStringTime, queries.length * 1e9 / bestTime, sink);
+    }
+
+    public static void main(String[] args) {
+        String dir = args[0];
+        try {
+            run("tokens", Dictionary.readObject(Consts.DICT_TABLE_OBJ_FILE, Consts.DICT_STR_OBJ_FILE,
+                    Consts.DICTIONARY_K, dir), Consts.DICTIONARY_K);
+            run("product ids", Dictionary.readObject(Consts.DICT_TABLE_PROD_OBJ_FILE, Consts.DICT_STR_PROD_OBJ_FILE,
+                    Consts.DICT_PRODUCT_ID_K, dir), Consts.DICT_PRODUCT_ID_K);
+        } catch (IOException e) {
+            System.err.println("IO Exception Error");
+            System.exit(1);
+        }
+    }
+}
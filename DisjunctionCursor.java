@@ -0,0 +1,108 @@
+package webdata;
+
+/**
+ * the reviews that appear in at least one of the given cursors, merged with a binary heap ordered by
+ * the current review id of each cursor
+ */
+public class DisjunctionCursor implements DocIdCursor {
+    private DocIdCursor[] heap;
+    private int heapSize;
+    private long cost = 0;
+    private int docId = -1;
+
+    public DisjunctionCursor(DocIdCursor[] cursors) {
+        this.heap = cursors.clone();
+        this.heapSize = cursors.length;
+        for (DocIdCursor cursor : cursors) {
+            this.cost += cursor.cost();
+        }
+    }
+
+    @Override
+    public int docId() {
+        return this.docId;
+    }
+
+    @Override
+    public int nextDoc() {
+        if (this.docId == -1) {
+            for (int i = 0; i < this.heapSize; i++) {
+                this.heap[i].nextDoc();
+            }
+            this.heapify();
+        }
+        else {
+            while (this.heapSize > 0 && this.heap[0].docId() == this.docId) {
+                this.heap[0].nextDoc();
+                this.siftDown(0);
+            }
+        }
+        return this.updateDocId();
+    }
+
+    @Override
+    public int advance(int target) {
+        if (this.docId >= target) {
+            return this.docId;
+        }
+        if (this.docId == -1) {
+            for (int i = 0; i < this.heapSize; i++) {
+                this.heap[i].advance(target);
+            }
+            this.heapify();
+        }
+        else {
+            while (this.heapSize > 0 && this.heap[0].docId() < target) {
+                this.heap[0].advance(target);
+                this.siftDown(0);
+            }
+        }
+        return this.updateDocId();
+    }
+
+    private int updateDocId() {
+        this.docId = this.heapSize == 0 ? NO_MORE_DOCS : this.heap[0].docId();
+        return this.docId;
+    }
+
+    private void heapify() {
+        for (int i = this.heapSize / 2 - 1; i >= 0; i--) {
+            this.siftDown(i);
+        }
+    }
+
+    /**
+     * restores the heap order below position i, and drops the cursor there if it is exhausted
+     */
+    private void siftDown(int i) {
+        if (this.heap[i].docId() == NO_MORE_DOCS) {
+            this.heapSize--;
+            this.heap[i] = this.heap[this.heapSize];
+            this.heap[this.heapSize] = null;
+            if (i == this.heapSize) {
+                return;
+            }
+        }
+        DocIdCursor cursor = this.heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= this.heapSize) {
+                break;
+            }
+            if (child + 1 < this.heapSize && this.heap[child + 1].docId() < this.heap[child].docId()) {
+                child++;
+            }
+            if (this.heap[child].docId() >= cursor.docId()) {
+                break;
+            }
+            this.heap[i] = this.heap[child];
+            i = child;
+        }
+        this.heap[i] = cursor;
+    }
+
+    @Override
+    public long cost() {
+        return this.cost;
+    }
+}
@@ -0,0 +1,25 @@
+package webdata;
+
+/**
+ * a stream of review ids in increasing order
+ */
+public interface DocIdCursor {
+    int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /**
+     * the current review id, -1 before the first call to nextDoc or advance and NO_MORE_DOCS at the end
+     */
+    int docId();
+
+    int nextDoc();
+
+    /**
+     * moves to the first review with an id greater or equal to target and returns it
+     */
+    int advance(int target);
+
+    /**
+     * an upper bound on the number of reviews the cursor returns, used to order cursors by their size
+     */
+    long cost();
+}
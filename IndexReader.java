@@ -2,30 +2,57 @@ package webdata;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.Vector;
 
+/**
+ * reads an index written by IndexWriter. one reader can be shared by any number of query threads:
+ * all the index files are mapped read only and read with absolute positions, so a read has no file position
+ * or other state to guard, the fields are final and never change after the constructor, and the only shared
+ * state that changes is the posting list cache, which has its own lock. the cursors it returns belong to the
+ * thread that asked for them
+ */
 public class IndexReader {
 
 
-    private Dictionary dictionary;
-    private Dictionary dictionaryProduct;
-    private ReviewsCollection reviews;
-    private String dir;
+    private final Dictionary dictionary;
+    private final Dictionary dictionaryProduct;
+    private final ReviewsCollection reviews;
+    private final MappedFile invertedIndex;
+    private final MappedFile invertedIndexProduct;
+    private final MappedFile tokenImpacts;
+    private final ProductStats productStats;
+    private final PostingListCache postingListCache;
 
     /**
      * Creates an IndexReader which will read from the given directory
      */
     public IndexReader(String dir) {
-        this.dir = dir;
+        this(dir, Consts.POSTING_CACHE_BYTES);
+    }
+
+    /**
+     * Creates an IndexReader which will read from the given directory, and keeps up to
+     * postingCacheBytes of decoded posting lists in memory (0 turns the cache off)
+     */
+    public IndexReader(String dir, long postingCacheBytes) {
+        this.postingListCache = new PostingListCache(postingCacheBytes);
         try{
             this.dictionary = Dictionary.readObject("dictionaryTable", "dictionaryString", Consts.DICTIONARY_K, dir);
             this.dictionaryProduct = Dictionary.readObject("dictionaryProductTable", "dictionaryProductString",
                     Consts.DICT_PRODUCT_ID_K, dir);
             this.reviews = ReviewsCollection.readObject("reviewsObj", dir);
+            this.invertedIndex = new MappedFile(Consts.INVERTED_INDEX_OBJ_FILE, dir);
+            this.invertedIndexProduct = new MappedFile(Consts.INVERTED_INDEX_PRODUCT_OBJ_FILE, dir);
+            this.tokenImpacts = new MappedFile(Consts.TOKEN_IMPACTS_OBJ_FILE, dir);
+            this.productStats = ProductStats.readObject(Consts.PRODUCT_STATS_OBJ_FILE, dir);
         }catch (IOException e){
             System.err.println("IO Exception Error");
             System.exit(1);
+            //exit does not return, this only tells the compiler that the final fields are assigned
+            throw new IllegalStateException(e);
         }
     }
 
@@ -35,30 +62,31 @@ public class IndexReader {
      * Returns null if there is no review with the given identifier
      */
     public String getProductId(int reviewId) {
-
-        int posInTable;
-        String currToken;
-        int posProductIdInTable, positionInStr;
         if (reviewId > this.reviews.getSize() || reviewId <= 0){
             return null;
         }
-        posProductIdInTable = this.reviews.getProductID(reviewId);
-
-        int posReviewInBlock = posProductIdInTable % Consts.DICT_PRODUCT_ID_K;
-        int posOfBlockHead = posProductIdInTable / Consts.DICT_PRODUCT_ID_K;
+        return this.getProductIdByIndex(this.reviews.getProductID(reviewId));
+    }
 
-        positionInStr = this.dictionaryProduct.getTokenPtr(posOfBlockHead);
-        posInTable = posOfBlockHead * Consts.DICT_PRODUCT_ID_K;
-        currToken = this.dictionaryProduct.getBlockHead(posInTable);
+    /**
+     * Returns the product identifier in the given row of the product dictionary
+     */
+    String getProductIdByIndex(int posProductIdInTable) {
+        return this.dictionaryProduct.getToken(posProductIdInTable).toUpperCase();
+    }
 
-        while(posInTable % Consts.DICT_PRODUCT_ID_K < posReviewInBlock){
+    /**
+     * Returns the row of the product of the given review in the product dictionary
+     */
+    int getProductIndex(int reviewId) {
+        return this.reviews.getProductID(reviewId);
+    }
 
-            positionInStr += this.dictionaryProduct.getLength(posInTable) -
-                    this.dictionaryProduct.getPrefixSize(posInTable);
-            posInTable++;
-            currToken = this.dictionaryProduct.getNextToken(positionInStr, currToken, posInTable);
-        }
-        return currToken.toUpperCase();
+    /**
+     * Returns the number of different products in the system
+     */
+    int getNumberOfProducts() {
+        return this.dictionaryProduct.getSize();
     }
 
     /**
@@ -106,6 +134,80 @@ public class IndexReader {
         return this.reviews.getLength(reviewId);
     }
 
+    /**
+     * Fills scores[i] with the score of reviewIds[i], for the first length ids.
+     * The score is -1 if there is no review with the identifier
+     */
+    public void getReviewScores(int[] reviewIds, int length, int[] scores) {
+        int size = this.reviews.getSize();
+        for (int i = 0; i < length; i++) {
+            int reviewId = reviewIds[i];
+            scores[i] = reviewId > size || reviewId <= 0 ? -1 : this.reviews.getScore(reviewId);
+        }
+    }
+
+    /**
+     * Fills numerators[i] with the helpfulness numerator of reviewIds[i], for the first length ids.
+     * The numerator is -1 if there is no review with the identifier
+     */
+    public void getReviewHelpfulnessNumerators(int[] reviewIds, int length, int[] numerators) {
+        int size = this.reviews.getSize();
+        for (int i = 0; i < length; i++) {
+            int reviewId = reviewIds[i];
+            numerators[i] = reviewId > size || reviewId <= 0 ? -1 : this.reviews.getHelpfulnessNumerator(reviewId);
+        }
+    }
+
+    /**
+     * Fills denominators[i] with the helpfulness denominator of reviewIds[i], for the first length ids.
+     * The denominator is -1 if there is no review with the identifier
+     */
+    public void getReviewHelpfulnessDenominators(int[] reviewIds, int length, int[] denominators) {
+        int size = this.reviews.getSize();
+        for (int i = 0; i < length; i++) {
+            int reviewId = reviewIds[i];
+            denominators[i] = reviewId > size || reviewId <= 0 ? -1 : this.reviews.getHelpfulnessDenominator(reviewId);
+        }
+    }
+
+    /**
+     * Fills lengths[i] with the number of tokens in reviewIds[i], for the first length ids.
+     * The length is -1 if there is no review with the identifier
+     */
+    public void getReviewLengths(int[] reviewIds, int length, int[] lengths) {
+        int size = this.reviews.getSize();
+        for (int i = 0; i < length; i++) {
+            int reviewId = reviewIds[i];
+            lengths[i] = reviewId > size || reviewId <= 0 ? -1 : this.reviews.getLength(reviewId);
+        }
+    }
+
+    /**
+     * Keeps only the reviews among the first length ids with a score of at least minScore and a helpfulness
+     * (numerator / denominator) of at least minHelpfulness, moving them to the start of reviewIds in the same
+     * order. Returns how many were kept. A review without helpfulness votes has a helpfulness of 0, and ids
+     * that are not reviews are dropped. e.g. filterReviews(ids, n, 4, 0.6)
+     */
+    public int filterReviews(int[] reviewIds, int length, int minScore, double minHelpfulness) {
+        int size = this.reviews.getSize();
+        int kept = 0;
+        for (int i = 0; i < length; i++) {
+            int reviewId = reviewIds[i];
+            if (reviewId > size || reviewId <= 0 || this.reviews.getScore(reviewId) < minScore) {
+                continue;
+            }
+            if (minHelpfulness > 0) {
+                int denominator = this.reviews.getHelpfulnessDenominator(reviewId);
+                if (denominator <= 0 ||
+                        this.reviews.getHelpfulnessNumerator(reviewId) / (double)denominator < minHelpfulness) {
+                    continue;
+                }
+            }
+            reviewIds[kept++] = reviewId;
+        }
+        return kept;
+    }
+
     /**
      * Return the number of reviews containing a given token (i.e., word)
      * Returns 0 if there are no reviews containing this token
@@ -126,15 +228,20 @@ public class IndexReader {
 
     public int getTokenCollectionFrequency(String token){
         int collectionFreq = 0;
-        int[][] postingList;
         int tokenPos = this.dictionary.findTokenIndex(token.toLowerCase());
         if (tokenPos == -1){
             return 0;
         }
-        postingList = InvertedIndex.readTokenPostingList(this.dictionary.getPostingPtr(tokenPos), this.dictionary.getFrequency(tokenPos),
-                Consts.INVERTED_INDEX_OBJ_FILE, this.dir);
-        for (int[] postingListItem : postingList) {
-            collectionFreq += postingListItem[1];
+        PostingListCache.PostingList postingList = this.getTokenPostingList(tokenPos);
+        if (postingList == null) {
+            PostingsCursor cursor = this.getTokenCursor(tokenPos);
+            while (cursor.nextDoc() != DocIdCursor.NO_MORE_DOCS) {
+                collectionFreq += cursor.freq();
+            }
+            return collectionFreq;
+        }
+        for (int freq : postingList.freqs) {
+            collectionFreq += freq;
         }
         return collectionFreq;
 
@@ -147,23 +254,87 @@ public class IndexReader {
      * Note that the integers should be sorted by id
      *
      * Returns an empty Enumeration if there are no reviews containing this token
+     * The values are decoded while they are enumerated, getTokenCursor reads them without boxing
      */
      public Enumeration<Integer> getReviewsWithToken(String token) {
-         Vector<Integer> res = new Vector<>();
          int index = this.dictionary.findTokenIndex(token.toLowerCase());
          if (index == -1){
-             return res.elements();
+             return new Vector<Integer>().elements();
          }
-         long postingPtr = this.dictionary.getPostingPtr(index);
-         int[][] postingList = InvertedIndex.readTokenPostingList(postingPtr, this.dictionary.getFrequency(index),
-                 Consts.INVERTED_INDEX_OBJ_FILE, this.dir);
-         for (int[] postingListItem : postingList) {
-             res.add(postingListItem[0]);
-             res.add(postingListItem[1]);
+         PostingListCache.PostingList postingList = this.getTokenPostingList(index);
+         if (postingList == null) {
+             return new PostingsEnumeration(this.getTokenCursor(index), true);
          }
-         return res.elements();
+         return new PostingsEnumeration(postingList, true);
      }
 
+    /**
+     * the decoded posting list of the token in the given dictionary row, from the cache if it is there.
+     * returns null if the list is too long to be cached, it is better read with a cursor then
+     */
+    private PostingListCache.PostingList getTokenPostingList(int index) {
+        int frequency = this.dictionary.getFrequency(index);
+        if (!this.postingListCache.canHold(frequency, true)) {
+            return null;
+        }
+        long key = PostingListCache.getKey(index, false);
+        PostingListCache.PostingList postingList = this.postingListCache.get(key);
+        if (postingList == null) {
+            int[] reviewIds = new int[frequency];
+            int[] freqs = new int[frequency];
+            InvertedIndex.readTokenPostingList(this.dictionary.getPostingPtr(index), frequency, this.invertedIndex,
+                    reviewIds, freqs);
+            postingList = new PostingListCache.PostingList(reviewIds, freqs);
+            this.postingListCache.put(key, postingList);
+        }
+        return postingList;
+    }
+
+    /**
+     * the decoded posting list of the product in the given dictionary row, from the cache if it is there.
+     * returns null if the list is too long to be cached, it is better read with a cursor then
+     */
+    private PostingListCache.PostingList getProductPostingList(int index) {
+        int frequency = this.dictionaryProduct.getFrequency(index);
+        if (!this.postingListCache.canHold(frequency, false)) {
+            return null;
+        }
+        long key = PostingListCache.getKey(index, true);
+        PostingListCache.PostingList postingList = this.postingListCache.get(key);
+        if (postingList == null) {
+            int[] reviewIds = InvertedIndex.readProductIdPostingList(this.dictionaryProduct.getPostingPtr(index),
+                    frequency, this.invertedIndexProduct);
+            postingList = new PostingListCache.PostingList(reviewIds, null);
+            this.postingListCache.put(key, postingList);
+        }
+        return postingList;
+    }
+
+    /**
+     * the number of posting list lookups that the cache of decoded posting lists answered
+     */
+    public long getPostingCacheHits() {
+        return this.postingListCache.getHits();
+    }
+
+    public long getPostingCacheMisses() {
+        return this.postingListCache.getMisses();
+    }
+
+    /**
+     * the number of posting lists that were dropped from the cache, or not let into its main part
+     */
+    public long getPostingCacheEvictions() {
+        return this.postingListCache.getEvictions();
+    }
+
+    /**
+     * the number of bytes of the posting lists in the cache
+     */
+    public long getPostingCacheSize() {
+        return this.postingListCache.getSize();
+    }
+
      /**
      * Return the number of product reviews available in the system
      */
@@ -185,21 +356,185 @@ public class IndexReader {
      * Note that the integers returned should be sorted by id
      *
      * Returns an empty Enumeration if there are no reviews for this product
+     * The ids are decoded while they are enumerated, getProductCursor reads them without boxing
      */
     public Enumeration<Integer> getProductReviews(String productId) {
-        Vector<Integer> res = new Vector<>();
         int index = this.dictionaryProduct.findTokenIndex(productId.toLowerCase());
         if (index == -1){
-            return res.elements();
+            return new Vector<Integer>().elements();
+        }
+        PostingListCache.PostingList postingList = this.getProductPostingList(index);
+        if (postingList == null) {
+            return new PostingsEnumeration(this.getProductCursor(index), false);
+        }
+        return new PostingsEnumeration(postingList, false);
+    }
+
+    /**
+     * Returns the number of reviews of the given product, 0 if the product is not indexed
+     */
+    public int getProductReviewCount(String productId) {
+        int index = this.dictionaryProduct.findTokenIndex(productId.toLowerCase());
+        return index == -1 ? 0 : this.productStats.getReviewCount(index);
+    }
+
+    /**
+     * Returns the average score of the reviews of the given product, 0 if the product is not indexed
+     */
+    public double getProductAverageScore(String productId) {
+        int index = this.dictionaryProduct.findTokenIndex(productId.toLowerCase());
+        return index == -1 ? 0 : this.productStats.getAverageScore(index);
+    }
+
+    /**
+     * Returns the total number of helpful votes (the sum of the helpfulness numerators) of the reviews of
+     * the given product, 0 if the product is not indexed
+     */
+    public long getProductHelpfulVotes(String productId) {
+        int index = this.dictionaryProduct.findTokenIndex(productId.toLowerCase());
+        return index == -1 ? 0 : this.productStats.getHelpfulnessNumeratorSum(index);
+    }
+
+    /**
+     * Returns the total number of helpfulness votes (the sum of the helpfulness denominators) of the reviews of
+     * the given product, 0 if the product is not indexed
+     */
+    public long getProductTotalVotes(String productId) {
+        int index = this.dictionaryProduct.findTokenIndex(productId.toLowerCase());
+        return index == -1 ? 0 : this.productStats.getHelpfulnessDenominatorSum(index);
+    }
+
+    /**
+     * Returns the identifiers of the n products with the highest value of the given metric, from the highest
+     * down. Ties are broken in favor of the product that comes first in the product dictionary
+     */
+    public Collection<String> getTopProducts(ProductStats.Metric metric, int n) {
+        ArrayList<String> res = new ArrayList<>();
+        if (n <= 0) {
+            return res;
+        }
+        TopScoreHeap topProducts = new TopScoreHeap(Math.min(n, this.productStats.getSize()));
+        for (int productIndex = 0; productIndex < this.productStats.getSize(); productIndex++) {
+            topProducts.offer(productIndex, this.productStats.getMetric(productIndex, metric));
+        }
+        for (int productIndex : topProducts.toSortedIds()) {
+            res.add(this.getProductIdByIndex(productIndex));
+        }
+        return res;
+    }
+
+    /**
+     * Returns a stream of the ids of the reviews that match the given boolean query, in increasing order.
+     * The posting lists are read lazily while the stream is consumed
+     */
+    public DocIdCursor getReviewsMatching(BooleanQuery query) {
+        return query.cursor(this);
+    }
+
+    /**
+     * Returns a stream of the ids of the reviews that contain at least one token starting with the given prefix,
+     * in increasing order. e.g. the prefix "kindl" matches kindle and kindles. The matching tokens are one range
+     * of dictionary rows, and their posting lists are merged lazily while the stream is consumed
+     */
+    public DocIdCursor getReviewsWithPrefix(String prefix) {
+        prefix = prefix.toLowerCase();
+        int firstRow = this.dictionary.findFirstRow(prefix);
+        int endRow = this.dictionary.getSize();
+        if (!prefix.isEmpty()) {
+            //the first token after all the tokens with the prefix is at least the prefix with its last char increased
+            endRow = this.dictionary.findFirstRow(prefix.substring(0, prefix.length() - 1) +
+                    (char)(prefix.charAt(prefix.length() - 1) + 1));
         }
-        long postingPtr = this.dictionaryProduct.getPostingPtr(index);
-        int[] postingList = InvertedIndex.readProductIdPostingList(postingPtr, this.dictionaryProduct.getFrequency(index),
-                Consts.INVERTED_INDEX_PRODUCT_OBJ_FILE, this.dir);
-        for (int reviewId : postingList) {
-            res.add(reviewId);
+        if (endRow - firstRow == 0) {
+            return new PostingsCursor(this.invertedIndex, 0, 0, true);
+        }
+        if (endRow - firstRow == 1) {
+            return this.getTokenCursor(firstRow);
+        }
+        DocIdCursor[] cursors = new DocIdCursor[endRow - firstRow];
+        for (int row = firstRow; row < endRow; row++) {
+            cursors[row - firstRow] = this.getTokenCursor(row);
+        }
+        return new DisjunctionCursor(cursors);
+    }
+
+    /**
+     * Returns the indexed tokens that are at most maxDistance insertions, deletions or substitutions away from
+     * the given token (including the token itself if it is indexed), in sorted order. e.g. with maxDistance 1
+     * "kindel" finds kindle
+     */
+    public Enumeration<String> getSimilarTokens(String token, int maxDistance) {
+        Vector<String> res = new Vector<>();
+        for (int row : this.dictionary.findSimilarRows(token.toLowerCase(), maxDistance)) {
+            res.add(this.dictionary.getToken(row));
         }
         return res.elements();
     }
 
+    /**
+     * Returns the dictionary row of the given token, -1 if the token is not indexed
+     */
+    int findTokenIndex(String token) {
+        return this.dictionary.findTokenIndex(token.toLowerCase());
+    }
+
+    /**
+     * Returns the number of reviews containing the token in the given dictionary row
+     */
+    int getTokenFrequency(int tokenIndex) {
+        return this.dictionary.getFrequency(tokenIndex);
+    }
+
+    /**
+     * Returns the maximal bm25 impact (without the idf) of the token in the given dictionary row
+     * over all the reviews containing it
+     */
+    float getTokenMaxImpact(int tokenIndex) {
+        return this.tokenImpacts.getFloat((long)tokenIndex * 4);
+    }
+
+    /**
+     * Returns a cursor over the reviews containing the given token (i.e., word), with the number of times
+     * the token appears in the current review in freq(). The postings are decoded lazily from the index file,
+     * a block at a time, and are never boxed
+     * Returns an empty cursor if there are no reviews containing this token
+     */
+    public PostingsCursor getTokenCursor(String token) {
+        int index = this.dictionary.findTokenIndex(token.toLowerCase());
+        if (index == -1){
+            return new PostingsCursor(this.invertedIndex, 0, 0, true);
+        }
+        return this.getTokenCursor(index);
+    }
+
+    /**
+     * Returns a cursor over the ids of the reviews for the given product identifier, decoded lazily
+     * like the ones of getTokenCursor
+     * Returns an empty cursor if there are no reviews for this product
+     */
+    public PostingsCursor getProductCursor(String productId) {
+        int index = this.dictionaryProduct.findTokenIndex(productId.toLowerCase());
+        if (index == -1){
+            return new PostingsCursor(this.invertedIndexProduct, 0, 0, false);
+        }
+        return this.getProductCursor(index);
+    }
+
+    /**
+     * Returns a cursor over the posting list of the token in the given dictionary row
+     */
+    PostingsCursor getTokenCursor(int tokenIndex) {
+        return new PostingsCursor(this.invertedIndex, this.dictionary.getPostingPtr(tokenIndex),
+                this.dictionary.getFrequency(tokenIndex), true);
+    }
+
+    /**
+     * Returns a cursor over the reviews of the product in the given dictionary row
+     */
+    PostingsCursor getProductCursor(int productIndex) {
+        return new PostingsCursor(this.invertedIndexProduct, this.dictionaryProduct.getPostingPtr(productIndex),
+                this.dictionaryProduct.getFrequency(productIndex), false);
+    }
+
 }
 
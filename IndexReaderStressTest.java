@@ -0,0 +1,128 @@
+package webdata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * runs the same mixed queries on one shared IndexReader from 1, 2, 4, ... up to maxThreads threads, checks every
+ * answer against the answer of a single threaded run on a reader of its own, and prints the throughput of every
+ * thread count. usage: IndexReaderStressTest indexDir [maxThreads] [postingCacheBytes] [numOfQueries].
+ * exits with 1 on the first answer that differs
+ */
+public class IndexReaderStressTest {
+    private static final String[] SEED_TOKENS = {"good", "great", "bad", "book", "movie", "love", "like", "the",
+            "and", "of", "to", "it", "this", "dvd", "film", "read", "buy", "price", "quality", "coffee", "taste"};
+    private static final int ROUNDS = 3;
+
+    /**
+     * one query touches the posting lists (through the cache and through cursors), the dictionaries,
+     * the review columns and the product aggregates
+     */
+    private static String runQuery(IndexReader reader, String token, int reviewId) {
+        StringBuilder answer = new StringBuilder();
+        answer.append(Collections.list(reader.getReviewsWithToken(token)));
+        answer.append(' ').append(reader.getTokenFrequency(token));
+        answer.append(' ').append(reader.getTokenCollectionFrequency(token));
+        String productId = reader.getProductId(reviewId);
+        answer.append(' ').append(productId);
+        answer.append(' ').append(reader.getReviewScore(reviewId));
+        answer.append(' ').append(reader.getReviewHelpfulnessNumerator(reviewId));
+        answer.append(' ').append(reader.getReviewLength(reviewId));
+        answer.append(' ').append(Collections.list(reader.getProductReviews(productId)));
+        answer.append(' ').append(reader.getProductAverageScore(productId));
+        PostingsCursor cursor = reader.getTokenCursor(token);
+        long sum = 0;
+        for (int docId = cursor.nextDoc(); docId != DocIdCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+            sum += docId * 31L + cursor.freq();
+        }
+        answer.append(' ').append(sum);
+        DocIdCursor prefixCursor = reader.getReviewsWithPrefix(token.substring(0, Math.min(2, token.length())));
+        int numOfPrefixReviews = 0;
+        while (prefixCursor.nextDoc() != DocIdCursor.NO_MORE_DOCS) {
+            numOfPrefixReviews++;
+        }
+        answer.append(' ').append(numOfPrefixReviews);
+        return answer.toString();
+    }
+
+    private static List<String> getTokens(IndexReader reader) {
+        List<String> tokens = new ArrayList<>();
+        for (String seed : SEED_TOKENS) {
+            tokens.add(seed);
+            Enumeration<String> similarTokens = reader.getSimilarTokens(seed, 1);
+            while (similarTokens.hasMoreElements()) {
+                tokens.add(similarTokens.nextElement());
+            }
+        }
+        //tokens that are not indexed are queries too
+        tokens.add("zzzzqqq");
+        return tokens;
+    }
+
+    private static boolean runThreads(final IndexReader reader, final int numOfThreads, final String[] tokens,
+                                      final int[] reviewIds, final String[] expected) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(numOfThreads);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int thread = 0; thread < numOfThreads; thread++) {
+            final int first = thread;
+            results.add(executor.submit(() -> {
+                for (int i = first; i < tokens.length; i += numOfThreads) {
+                    if (!runQuery(reader, tokens[i], reviewIds[i]).equals(expected[i])) {
+                        System.err.println("query " + i + " (" + tokens[i] + ", " + reviewIds[i] + ") differs with " +
+                                numOfThreads + " threads");
+                        return false;
+                    }
+                }
+                return true;
+            }));
+        }
+        boolean ok = true;
+        for (Future<Boolean> result : results) {
+            ok &= result.get();
+        }
+        executor.shutdown();
+        return ok;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String dir = args[0];
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        long cacheBytes = args.length > 2 ? Long.parseLong(args[2]) : Consts.POSTING_CACHE_BYTES;
+        int numOfQueries = args.length > 3 ? Integer.parseInt(args[3]) : 4000;
+
+        IndexReader singleReader = new IndexReader(dir, 0);
+        List<String> tokenList = getTokens(singleReader);
+        Random random = new Random(3);
+        String[] tokens = new String[numOfQueries];
+        int[] reviewIds = new int[numOfQueries];
+        String[] expected = new String[numOfQueries];
+        for (int i = 0; i < numOfQueries; i++) {
+            tokens[i] = tokenList.get(random.nextInt(tokenList.size()));
+            reviewIds[i] = 1 + random.nextInt(singleReader.getNumberOfReviews());
+            expected[i] = runQuery(singleReader, tokens[i], reviewIds[i]);
+        }
+
+        IndexReader sharedReader = new IndexReader(dir, cacheBytes);
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, " + numOfQueries +
+                " queries, posting cache of " + cacheBytes + " bytes");
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int numOfThreads = 1; numOfThreads <= maxThreads; numOfThreads *= 2) {
+                long start = System.nanoTime();
+                if (!runThreads(sharedReader, numOfThreads, tokens, reviewIds, expected)) {
+                    System.exit(1);
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("round %d, %2d threads: ok, %.0f queries/s%n", round + 1, numOfThreads,
+                        numOfQueries / seconds);
+            }
+        }
+        System.out.println("posting cache hits " + sharedReader.getPostingCacheHits() + ", misses " +
+                sharedReader.getPostingCacheMisses() + ", evictions " + sharedReader.getPostingCacheEvictions());
+    }
+}
@@ -2,11 +2,12 @@ package webdata;
 
 import java.io.*;
 import java.lang.reflect.Array;
-import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.IntStream;
 
@@ -14,36 +15,40 @@ import java.util.stream.IntStream;
 public class IndexWriter {
     private static final String SORTED_FILE = "sortedPairs";
     private static final String PRODUCT_ID_SORTED_FILE = "ProductIdSortedPairs";
-    private static final String REGEX = "\\w+/\\w+:\\s*";
     private static final int BLOCK_SIZE = 4096;
     private static final int NUM_OF_THREADS = 4;
+    static {
+        //the provisional review ids of single pass indexing are (thread << shift | local id), and every number in
+        //the runs and the posting lists has to stay below 2^30, so the thread bits have to fit above the shift
+        if ((long)NUM_OF_THREADS << Consts.REVIEW_ID_THREAD_SHIFT > 1L << 30) {
+            throw new IllegalStateException("NUM_OF_THREADS does not fit above REVIEW_ID_THREAD_SHIFT");
+        }
+    }
     private ReviewsCollection reviews;
     private Dictionary dictionary;
     private Dictionary productIdsDict;
     static ArrayList<String> tokens;
     static ArrayList<String> productIdTokens;
-    private HashSet<String> hashedTokens = new HashSet<>();
-    private HashSet<String> hashedProductIds = new HashSet<>();
+    private TermTable tokenIds;
+    private TermTable productIds;
+    //every parser thread collects its own vocabulary, they are merged after all the threads are done
+    private ArrayList<TermTable> hashedTokens = new ArrayList<>();
+    private ArrayList<TermTable> hashedProductIds = new ArrayList<>();
 
     private int[] reviewLength = new int[NUM_OF_THREADS];
-    private ReentrantLock hashTokenLock= new ReentrantLock();
-    private ReentrantLock hashedProductIdsLock = new ReentrantLock();
+    private ReentrantLock vocabulariesLock = new ReentrantLock();
     private ReentrantLock fileIndexLock = new ReentrantLock();
     private ReentrantLock productIDFileIndexLock = new ReentrantLock();
     private int productIDFileIndex = 0;
     private int fileIndex = 0;
 
-
-    final Comparator<int[]> pairsComparator = new Comparator<int[]>() {
-        @Override
-        public int compare(int[] o1, int[] o2) {
-            int res = o1[0] - o2[0];
-            if (res == 0) {
-                return o1[1] - o2[1];
-            }
-            return res;
-        }
-    };
+    private boolean singlePass = false;
+    private ConcurrentHashMap<String, Integer> provisionalTokenIds;
+    private ConcurrentHashMap<String, Integer> provisionalProductIds;
+    private AtomicInteger nextProvisionalTokenId;
+    private AtomicInteger nextProvisionalProductId;
+    private ReviewsCollection[] threadReviews = new ReviewsCollection[NUM_OF_THREADS];
+    private MergeIO mergeIO;
 
 
     /**
@@ -53,39 +58,33 @@ public class IndexWriter {
      *     if the directory does not exist, it should be created
      */
     public void write(String inputFile, String dir) {
+        write(inputFile, dir, false);
+    }
+
+    /**
+     * Same as write(inputFile, dir). If singlePass is true the input is parsed only once: the tokens,
+     * product ids and reviews get provisional ids while parsing, and they are mapped to the sorted
+     * dictionary order when the posting lists are written
+     */
+    public void write(String inputFile, String dir, boolean singlePass) {
         /* for the dictionaries*/
 
         /*creating the sorted dictionaries, and the reviews collection*/
+        this.singlePass = singlePass;
+        mergeIO = new MergeIO(NUM_OF_THREADS);
         try {
             File f = new File(inputFile);
             long size = f.length();
 
-            ExecutorService firstParserPool = Executors.newFixedThreadPool(NUM_OF_THREADS);
-            IntStream.range(0, NUM_OF_THREADS).forEach(
-                 i-> firstParserPool.execute(
-                         () -> {
-                             try {
-                                 firstParser(inputFile, (long)Math.ceil(i / (double)NUM_OF_THREADS * size), (long)Math.ceil((i + 1) / (double)NUM_OF_THREADS * size), i);
-                             } catch (IOException e) {
-                                 System.err.println("IOException error");
-                                 System.exit(1);
-                             }
-                         }
-            ));
-
-            firstParserPool.shutdown();
-            firstParserPool.awaitTermination(100, TimeUnit.MINUTES);
-
-            tokens = new ArrayList<>(hashedTokens);
-            Collections.sort(tokens);
-            hashedTokens = null;
-            productIdTokens = new ArrayList<>(hashedProductIds);
-            Collections.sort(productIdTokens);
-            hashedProductIds = null;
-            reviews = new ReviewsCollection(IntStream.of(reviewLength).sum());
-
-            InvertedIndex invertedIndex = new InvertedIndex();
-            InvertedIndex productIdInvertedIndex = new InvertedIndex();
+            if (singlePass) {
+                provisionalTokenIds = new ConcurrentHashMap<>();
+                provisionalProductIds = new ConcurrentHashMap<>();
+                nextProvisionalTokenId = new AtomicInteger();
+                nextProvisionalProductId = new AtomicInteger();
+            }
+            else {
+                firstPass(inputFile, size);
+            }
 
             File directory = new File(dir);
             if (!directory.exists()) {
@@ -104,9 +103,9 @@ public class IndexWriter {
                         () -> {
                             try {
                                 secondParser(inputFile, (long)Math.ceil(index / (double)NUM_OF_THREADS * size), (long)Math.ceil((index + 1) /
-                                        (double)NUM_OF_THREADS * size), dir, startReviewId);
+                                        (double)NUM_OF_THREADS * size), dir, startReviewId, index);
                             } catch (IOException e) {
-                                System.err.println("IOException error");
+                                System.err.println("IOException error: " + e.getMessage());
                                 System.exit(1);
                             }
                         }
@@ -117,20 +116,41 @@ public class IndexWriter {
             secondParserPool.shutdown();
             secondParserPool.awaitTermination(100, TimeUnit.MINUTES);
 
-            merge(dir, PRODUCT_ID_SORTED_FILE, Consts.PRODUCT_ID_MERGE_B, true);
-            merge(dir, SORTED_FILE, Consts.MERGE_B, false);
+            tokenIds = null;
+            productIds = null;
+            int[] tokenRowToId = null, productRowToId = null, reviewIdBases = null;
+            if (singlePass) {
+                tokenRowToId = sortProvisionalIds(provisionalTokenIds, false);
+                provisionalTokenIds = null;
+                productRowToId = sortProvisionalIds(provisionalProductIds, true);
+                provisionalProductIds = null;
+                reviewIdBases = collectThreadReviews(productRowToId);
+            }
 
             dictionary = new Dictionary(Consts.DICTIONARY_K, tokens.size());
             productIdsDict = new Dictionary(Consts.DICT_PRODUCT_ID_K, productIdTokens.size());
+            InvertedIndex invertedIndex = new InvertedIndex(reviews);
+            InvertedIndex productIdInvertedIndex = new InvertedIndex();
+            if (singlePass) {
+                invertedIndex.setProvisionalIds(tokenRowToId, reviewIdBases);
+                productIdInvertedIndex.setProvisionalIds(productRowToId, reviewIdBases);
+            }
 
-            invertedIndex.writeObject(dictionary, Consts.INVERTED_INDEX_OBJ_FILE, dir, SORTED_FILE, false, Consts.B);
-            productIdInvertedIndex.writeObject(productIdsDict, Consts.INVERTED_INDEX_PRODUCT_OBJ_FILE, dir,
-                    PRODUCT_ID_SORTED_FILE, true, Consts.PRODUCT_ID_B);
+            //the last merge pass of the runs builds the posting lists
+            productIdInvertedIndex.startPostingLists(productIdsDict, Consts.INVERTED_INDEX_PRODUCT_OBJ_FILE, dir, true);
+            merge(dir, PRODUCT_ID_SORTED_FILE, Consts.PRODUCT_ID_MERGE_B, true, productIdInvertedIndex);
+            productIdInvertedIndex.finishPostingLists();
+            invertedIndex.startPostingLists(dictionary, Consts.INVERTED_INDEX_OBJ_FILE, dir, false);
+            merge(dir, SORTED_FILE, Consts.MERGE_B, false, invertedIndex);
+            invertedIndex.finishPostingLists();
+            invertedIndex.writeImpacts(Consts.TOKEN_IMPACTS_OBJ_FILE, dir);
 
-            dictionary.writeObject(Consts.DICT_TABLE_OBJ_FILE, Consts.DICT_STR_OBJ_FILE, dir, false);
-            productIdsDict.writeObject(Consts.DICT_TABLE_PROD_OBJ_FILE, Consts.DICT_STR_PROD_OBJ_FILE, dir, true);
+            dictionary.writeObject(Consts.DICT_TABLE_OBJ_FILE, Consts.DICT_STR_OBJ_FILE, dir);
+            productIdsDict.writeObject(Consts.DICT_TABLE_PROD_OBJ_FILE, Consts.DICT_STR_PROD_OBJ_FILE, dir);
 
             reviews.writeObject(Consts.REVIEWS_OBJ_FILE, dir);
+            ProductStats.of(reviews, productIdTokens.size()).writeObject(Consts.PRODUCT_STATS_OBJ_FILE, dir);
+            mergeIO.shutdown();
 
         }
         catch (IOException e){
@@ -145,6 +165,74 @@ public class IndexWriter {
     }
 
 
+    /**
+     * the first parsing pass, collects the sorted tokens and product ids and counts the reviews of every thread
+     */
+    private void firstPass(String inputFile, long size) throws InterruptedException {
+        ExecutorService firstParserPool = Executors.newFixedThreadPool(NUM_OF_THREADS);
+        IntStream.range(0, NUM_OF_THREADS).forEach(
+             i-> firstParserPool.execute(
+                     () -> {
+                         try {
+                             firstParser(inputFile, (long)Math.ceil(i / (double)NUM_OF_THREADS * size), (long)Math.ceil((i + 1) / (double)NUM_OF_THREADS * size), i);
+                         } catch (IOException e) {
+                             System.err.println("IOException error");
+                             System.exit(1);
+                         }
+                     }
+        ));
+
+        firstParserPool.shutdown();
+        firstParserPool.awaitTermination(100, TimeUnit.MINUTES);
+
+        tokens = mergeVocabularies(hashedTokens);
+        hashedTokens = null;
+        productIdTokens = mergeVocabularies(hashedProductIds);
+        hashedProductIds = null;
+        tokenIds = TermTable.of(tokens);
+        productIds = TermTable.of(productIdTokens);
+        reviews = new ReviewsCollection(IntStream.of(reviewLength).sum());
+    }
+
+    /**
+     * merges the vocabularies of the parser threads into one sorted list, by adding all of them
+     * to the largest one
+     */
+    private static ArrayList<String> mergeVocabularies(ArrayList<TermTable> threadVocabularies) {
+        TermTable merged = new TermTable(0);
+        for (TermTable vocabulary : threadVocabularies) {
+            TermTable smaller = vocabulary;
+            if (vocabulary.size() > merged.size()) {
+                smaller = merged;
+                merged = vocabulary;
+            }
+            for (int id = 0; id < smaller.size(); id++) {
+                merged.add(smaller.getTerm(id));
+            }
+        }
+        ArrayList<String> sortedVocabulary = new ArrayList<>(merged.size());
+        for (int id = 0; id < merged.size(); id++) {
+            sortedVocabulary.add(merged.getTerm(id));
+        }
+        Collections.sort(sortedVocabulary);
+        return sortedVocabulary;
+    }
+
+    /**
+     * the time in milliseconds the last write spent waiting for the sort runs to be read, summed over the threads
+     */
+    public long getMergeReadWaitTime() {
+        //null until the first write
+        return mergeIO == null ? 0 : mergeIO.getReadWaitTime();
+    }
+
+    /**
+     * the time in milliseconds the last write spent waiting for the sort runs to be written, summed over the threads
+     */
+    public long getMergeWriteWaitTime() {
+        return mergeIO == null ? 0 : mergeIO.getWriteWaitTime();
+    }
+
     /**
      * Delete all index files by removing the given directory
      */
@@ -171,7 +259,7 @@ public class IndexWriter {
     private void firstParser(String inputFile, long from, long to, int i)throws IOException {
 
         String currLine = "", productId;
-        String[] tokens;
+        Tokenizer tokenizer = new Tokenizer();
         File f = new File(inputFile);
         long currOffset = from;
         RandomAccessFile reader = new RandomAccessFile(f, "r");
@@ -182,6 +270,8 @@ public class IndexWriter {
         reader.seek(from);
         FileReader fr = new FileReader(reader.getFD());
         BufferedReader br = new BufferedReader(fr, min);
+        TermTable threadTokens = new TermTable(BLOCK_SIZE);
+        TermTable threadProductIds = new TermTable(BLOCK_SIZE);
 
 
         while (!currLine.startsWith("product/productId")){
@@ -192,13 +282,8 @@ public class IndexWriter {
         while (currLine != null && currOffset < to){
             reviewLength[i] ++;
 
-            productId = currLine.replaceFirst(REGEX,"").toLowerCase();
-            hashedProductIdsLock.lock();
-            try{
-                hashedProductIds.add(productId);
-            } finally {
-                hashedProductIdsLock.unlock();
-            }
+            productId = Tokenizer.stripField(currLine).toLowerCase();
+            threadProductIds.add(productId);
             //this line is the userId
             while (!currLine.startsWith("review/text")){
                 currLine  = br.readLine();
@@ -219,41 +304,36 @@ public class IndexWriter {
 
                     continue;
                 }
-                currLine = currLine.replaceFirst(REGEX,"").toLowerCase();
-                tokens = currLine.split("[\\W|_]+");
-                hashTokenLock.lock();
-                try {
-                    for (String token: tokens) {
-                        if (!token.equals("")){
-                            if (token.length() > 256){
-                                token = token.substring(0, 256);
-                            }
-                            hashedTokens.add(token);
-                        }
-                    }
-                }finally {
-                    hashTokenLock.unlock();
+                tokenizer.reset(currLine);
+                while (tokenizer.nextToken()) {
+                    threadTokens.add(tokenizer.getToken(), 0, tokenizer.getTokenLength());
                 }
                 currLine = br.readLine();
                 currOffset += currLine.length() + newLine;
             }
         }
         br.close();
+        vocabulariesLock.lock();
+        try {
+            hashedTokens.add(threadTokens);
+            hashedProductIds.add(threadProductIds);
+        } finally {
+            vocabulariesLock.unlock();
+        }
     }
 
 
-    private void sortAndWriteBlock(int[][] pairs, boolean isProductId, String dir) throws IOException, InterruptedException {
-        BufferedOutputStream sortedBlock;
-        ExecutorService pool = Executors.newFixedThreadPool(2);
-        int[][] first = Arrays.copyOfRange(pairs, 0, pairs.length/2);
-        int[][] last = Arrays.copyOfRange(pairs, pairs.length/2, pairs.length);
-
-        ByteBuffer byteBuffer = ByteBuffer.allocate(pairs.length * 8);
+    /**
+     * sorts the first length pairs and writes them as a new run. every pair is packed in one long,
+     * the term id in the high 32 bits and the review id in the low 32 bits, so sorting the longs sorts the
+     * pairs by term id and then by review id
+     */
+    private void sortAndWriteBlock(long[] pairs, int length, boolean isProductId, String dir) throws IOException {
+        RunWriter sortedBlock;
         if (isProductId){
             productIDFileIndexLock.lock();
             try {
-                sortedBlock = new BufferedOutputStream(new FileOutputStream(dir+ File.separator + PRODUCT_ID_SORTED_FILE
-                        + productIDFileIndex));
+                sortedBlock = new RunWriter(dir+ File.separator + PRODUCT_ID_SORTED_FILE + productIDFileIndex, mergeIO);
                 productIDFileIndex++;
             }finally {
                 productIDFileIndexLock.unlock();
@@ -262,59 +342,48 @@ public class IndexWriter {
         else{
             fileIndexLock.lock();
             try {
-                sortedBlock = new BufferedOutputStream(new FileOutputStream(dir+ File.separator +SORTED_FILE+fileIndex));
+                sortedBlock = new RunWriter(dir+ File.separator +SORTED_FILE+fileIndex, mergeIO);
                 fileIndex++;
             }finally {
                 fileIndexLock.unlock();
             }
         }
-        pool.execute(
-                () -> {
-                    Arrays.sort(first, pairsComparator);
-                }
-        );
-        pool.execute(
-                () -> {
-                    Arrays.sort(last, pairsComparator);
-                }
-        );
-        pool.shutdown();
-        pool.awaitTermination(100, TimeUnit.MINUTES);
-        int i=0, j=0;
-        while (i < first.length || j < last.length){
-            if (j == last.length || (i != first.length && pairsComparator.compare(first[i], last[j]) < 0)){
-                byteBuffer.putInt(first[i][0]);
-                byteBuffer.putInt(first[i][1]);
-                i++;
-            }
-            else {
-                byteBuffer.putInt(last[j][0]);
-                byteBuffer.putInt(last[j][1]);
-                j++;
-            }
+        Arrays.parallelSort(pairs, 0, length);
+        for (int i = 0; i < length; i++) {
+            sortedBlock.addPair(pairs[i]);
         }
-        sortedBlock.write(byteBuffer.array());
-        pairs = null;
-        byteBuffer = null;
         sortedBlock.close();
         sortedBlock = null;
     }
 
+    private static long packPair(int termId, int reviewId) {
+        return ((long)termId << 32) | (reviewId & 0xFFFFFFFFL);
+    }
+
     /**
      * pareser for creating the inverted index - for each token create its review list.
      * @param inputFile
      * @throws IOException
      */
-    private void secondParser(String inputFile, long from, long to, String dir, int reviewId) throws IOException {
+    private void secondParser(String inputFile, long from, long to, String dir, int reviewId, int threadIndex)
+            throws IOException {
         int tokenId, productIdCounter = 0, amountOfPairs = 0;
-        int productIdIndex;
+        int productIdIndex, pairReviewId;
+        ReviewsCollection parsedReviews = this.reviews;
+        if (singlePass) {
+            //the reviews of every thread are numbered from 1 and collected apart until all the threads are done
+            parsedReviews = new ReviewsCollection(BLOCK_SIZE);
+            reviewId = 1;
+        }
         byte score;
         short helpfulnessNumerator, helpfulnessDenominator, lengthReview = 0;
-        String[] tokens, helpfulness;
+        String[] helpfulness;
         String productId, currLine = "";
+        Tokenizer tokenizer = new Tokenizer();
+        ThreadTokenIds threadTokenIds = singlePass ? new ThreadTokenIds() : null;
 
-        int[][] pairs = new int[BLOCK_SIZE * Consts.B / (8 * NUM_OF_THREADS)][2];
-        int[][] productIDPairs = new int[BLOCK_SIZE * Consts.PRODUCT_ID_B / (8*NUM_OF_THREADS)][2];
+        long[] pairs = new long[BLOCK_SIZE * Consts.B / (8 * NUM_OF_THREADS)];
+        long[] productIDPairs = new long[BLOCK_SIZE * Consts.PRODUCT_ID_B / (8*NUM_OF_THREADS)];
         long currOffset = from;
 
         try {
@@ -334,15 +403,20 @@ public class IndexWriter {
             }
 
             while (currLine != null && currOffset < to) {
-                productId = currLine.replaceFirst(REGEX,"").toLowerCase();
+                productId = Tokenizer.stripField(currLine).toLowerCase();
+                if (singlePass && reviewId >= 1 << Consts.REVIEW_ID_THREAD_SHIFT) {
+                    //the local id would spill into the thread bits of the provisional id
+                    throw new IOException("a parser thread has 2^" + Consts.REVIEW_ID_THREAD_SHIFT +
+                            " reviews, more than its provisional ids can hold");
+                }
+                pairReviewId = singlePass ? (threadIndex << Consts.REVIEW_ID_THREAD_SHIFT) | reviewId : reviewId;
                 if (productIdCounter == BLOCK_SIZE * Consts.PRODUCT_ID_B/ (8 * NUM_OF_THREADS)){
-                    this.sortAndWriteBlock(productIDPairs, true, dir);
+                    this.sortAndWriteBlock(productIDPairs, productIdCounter, true, dir);
                     productIdCounter = 0;
                 }
 
-                productIdIndex = Collections.binarySearch(productIdTokens, productId);
-                productIDPairs[productIdCounter][0] = productIdIndex;
-                productIDPairs[productIdCounter][1] = reviewId;
+                productIdIndex = getProductIdIndex(productId);
+                productIDPairs[productIdCounter] = packPair(productIdIndex, pairReviewId);
                 productIdCounter++;
 
                 while (!currLine.startsWith("review/helpfulness")){
@@ -351,11 +425,11 @@ public class IndexWriter {
 
                 }
                 //after the while ends the currLine contains the helpfulness line
-                helpfulness = currLine.replaceFirst(REGEX,"").split("/");
+                helpfulness = Tokenizer.stripField(currLine).split("/");
                 helpfulnessNumerator = Short.parseShort(helpfulness[0]);
                 helpfulnessDenominator = Short.parseShort(helpfulness[1]);
                 currLine = br.readLine();
-                score = (byte)Double.parseDouble(currLine.replaceFirst(REGEX,""));
+                score = (byte)Double.parseDouble(Tokenizer.stripField(currLine));
                 currOffset += currLine.length() + newLine;
 
                 while(!currLine.startsWith("review/text:")){
@@ -375,57 +449,137 @@ public class IndexWriter {
                         }
                         continue;
                     }
-                    currLine = currLine.replaceFirst(REGEX,"").toLowerCase();
-                    tokens = currLine.split("[\\W|_]+");
-                    for (String token: tokens) {
-                        if (!token.equals("")){
-                            if(token.length() > 256){
-                                token = token.substring(0, 256);
-                            }
-                            if (amountOfPairs == BLOCK_SIZE * Consts.B / (8 * NUM_OF_THREADS)){
-                                this.sortAndWriteBlock(pairs, false, dir);
-                                amountOfPairs = 0;
-                            }
-                            tokenId = Collections.binarySearch(IndexWriter.tokens, token);
-                            pairs[amountOfPairs][0] = tokenId;
-                            pairs[amountOfPairs][1] = reviewId;
-                            amountOfPairs++;
-                            lengthReview++;
+                    tokenizer.reset(currLine);
+                    while (tokenizer.nextToken()) {
+                        if (amountOfPairs == BLOCK_SIZE * Consts.B / (8 * NUM_OF_THREADS)){
+                            this.sortAndWriteBlock(pairs, amountOfPairs, false, dir);
+                            amountOfPairs = 0;
+                        }
+                        if (singlePass) {
+                            tokenId = threadTokenIds.get(tokenizer.getToken(), tokenizer.getTokenLength());
+                        }
+                        else {
+                            tokenId = tokenIds.get(tokenizer.getToken(), 0, tokenizer.getTokenLength());
                         }
+                        pairs[amountOfPairs] = packPair(tokenId, pairReviewId);
+                        amountOfPairs++;
+                        lengthReview++;
                     }
                     currLine = br.readLine();
                     currOffset += currLine.length() + newLine;
 
                 }
-                this.reviews.addReview(productIdIndex, helpfulnessNumerator, helpfulnessDenominator, score, lengthReview, reviewId-1);
+                if (reviewId > parsedReviews.getSize()) {
+                    parsedReviews.resize(parsedReviews.getSize() * 2);
+                }
+                parsedReviews.addReview(productIdIndex, helpfulnessNumerator, helpfulnessDenominator, score, lengthReview, reviewId-1);
                 lengthReview = 0;
                 reviewId++;
             }
             //for the case that we didn't fill all the B buffer with pairs
             if (amountOfPairs > 0){
-                int[][] subArr = Arrays.copyOfRange(pairs, 0, amountOfPairs);
-                this.sortAndWriteBlock(subArr, false, dir);
+                this.sortAndWriteBlock(pairs, amountOfPairs, false, dir);
             }
             if (productIdCounter > 0){
-                int[][] subArr = Arrays.copyOfRange(productIDPairs, 0, productIdCounter);
-                this.sortAndWriteBlock(subArr, true, dir);
+                this.sortAndWriteBlock(productIDPairs, productIdCounter, true, dir);
+            }
+            if (singlePass) {
+                reviewLength[threadIndex] = reviewId - 1;
+                threadReviews[threadIndex] = parsedReviews;
             }
             br.close();
             pairs = null;
             productIDPairs = null;
-            tokens = null;
             helpfulness = null;
         } catch (FileNotFoundException e) {
             e.printStackTrace();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
         }
 
 
     }
 
 
-    private void merge(String dir, String fileName, int b, boolean isProductId) throws IOException, InterruptedException {
+    /**
+     * the provisional token ids that one parser thread already looked up in single pass mode, so the shared
+     * map is used (and a String is created) only the first time the thread sees a token
+     */
+    private class ThreadTokenIds {
+        private TermTable localIds = new TermTable(BLOCK_SIZE);
+        private int[] provisionalIds = new int[BLOCK_SIZE];
+
+        int get(char[] token, int length) {
+            int numOfTokens = localIds.size();
+            int localId = localIds.add(token, 0, length);
+            if (localId == numOfTokens) {
+                if (localId == provisionalIds.length) {
+                    provisionalIds = Arrays.copyOf(provisionalIds, provisionalIds.length * 2);
+                }
+                provisionalIds[localId] = provisionalTokenIds.computeIfAbsent(localIds.getTerm(localId),
+                        newToken -> nextProvisionalTokenId.getAndIncrement());
+            }
+            return provisionalIds[localId];
+        }
+    }
+
+    private int getProductIdIndex(String productId) {
+        if (singlePass) {
+            return provisionalProductIds.computeIfAbsent(productId,
+                    newProductId -> nextProvisionalProductId.getAndIncrement());
+        }
+        return productIds.get(productId);
+    }
+
+    /**
+     * sorts the tokens (or product ids) that got provisional ids during single pass parsing into the
+     * dictionary order, and returns the provisional id of every dictionary row
+     */
+    private int[] sortProvisionalIds(ConcurrentHashMap<String, Integer> provisionalIds, boolean isProductId) {
+        ArrayList<String> sortedTokens = new ArrayList<>(provisionalIds.keySet());
+        Collections.sort(sortedTokens);
+        int[] rowToId = new int[sortedTokens.size()];
+        for (int row = 0; row < rowToId.length; row++) {
+            rowToId[row] = provisionalIds.get(sortedTokens.get(row));
+        }
+        if (isProductId) {
+            productIdTokens = sortedTokens;
+        }
+        else {
+            tokens = sortedTokens;
+        }
+        return rowToId;
+    }
+
+    /**
+     * builds the reviews collection from the reviews every thread parsed in single pass mode, with the
+     * product ids mapped to their dictionary rows. returns the id before the first review of every thread
+     */
+    private int[] collectThreadReviews(int[] productRowToId) {
+        int[] productIdToRow = new int[productRowToId.length];
+        for (int row = 0; row < productRowToId.length; row++) {
+            productIdToRow[productRowToId[row]] = row;
+        }
+        int[] reviewIdBases = new int[NUM_OF_THREADS];
+        reviews = new ReviewsCollection(IntStream.of(reviewLength).sum());
+        for (int i = 0; i < NUM_OF_THREADS; i++) {
+            reviewIdBases[i] = i == 0 ? 0 : reviewIdBases[i - 1] + reviewLength[i - 1];
+            ReviewsCollection parsedReviews = threadReviews[i];
+            for (int localId = 1; localId <= reviewLength[i]; localId++) {
+                reviews.addReview(productIdToRow[parsedReviews.getProductID(localId)],
+                        parsedReviews.getHelpfulnessNumerator(localId), parsedReviews.getHelpfulnessDenominator(localId),
+                        parsedReviews.getScore(localId), parsedReviews.getLength(localId),
+                        reviewIdBases[i] + localId - 1);
+            }
+            threadReviews[i] = null;
+        }
+        return reviewIdBases;
+    }
+
+    /**
+     * merges the runs until there are at most b of them, and then merges those straight into postingLists,
+     * so the fully merged pairs are never written to disk
+     */
+    private void merge(String dir, String fileName, int b, boolean isProductId, PairConsumer postingLists)
+            throws IOException, InterruptedException {
         int numRuns;
         if (isProductId) {
             numRuns = productIDFileIndex;
@@ -433,83 +587,44 @@ public class IndexWriter {
         else {
             numRuns = fileIndex;
         }
-        while (numRuns > 1){
+        while (numRuns > b){
             numRuns = mergeBlocks(numRuns, dir, b, fileName);
         }
+        mergeRuns(numRuns, 0, b, dir, fileName, postingLists);
     }
 
-    private void mergeRuns(int runsToMerge, int indexStartRun, int b, String dir, String fileName) throws IOException {
-        PriorityQueue<int[]> pairs = new PriorityQueue<>(runsToMerge, pairsComparator);
-        int[] pair, minPair;
-        int index;
-        byte[] blockToRead = new byte[BLOCK_SIZE];
-        ByteBuffer[] bBuffers;
-        BufferedInputStream[] fileReaders = new BufferedInputStream[runsToMerge];
-        BufferedOutputStream writer = new BufferedOutputStream(new FileOutputStream(
-                dir + File.separator + fileName + indexStartRun + ".out"), BLOCK_SIZE);
-        ByteBuffer outputBuffer = ByteBuffer.allocate(BLOCK_SIZE);
-        bBuffers = new ByteBuffer[runsToMerge];
-
-        //initialize the offsets inside the runs and the buffers for the blocks of each run
+    /**
+     * merges runsToMerge sorted runs into output with a loser tree over the packed pairs. every run is read
+     * through its own reused buffer, so nothing is allocated per pair or per block
+     */
+    private void mergeRuns(int runsToMerge, int indexStartRun, int b, String dir, String fileName,
+                           PairConsumer output) throws IOException {
+        RunReader[] runReaders = new RunReader[runsToMerge];
+        long[] heads = new long[runsToMerge];
+
+        //initialize the readers of the runs with the first pair of each run
         for (int i = 0; i < runsToMerge; i++){
-            fileReaders[i] = new BufferedInputStream(new FileInputStream(dir+ File.separator +fileName+(b * indexStartRun + i)), BLOCK_SIZE);
-            int bytesRead = fileReaders[i].read(blockToRead, 0, BLOCK_SIZE);
-
-            bBuffers[i] = ByteBuffer.allocate(bytesRead);
-            bBuffers[i].put(blockToRead, 0, bytesRead); //the buffer blocks are full
-            bBuffers[i].position(0);
-            pair = new int[3];
-            pair[0] = bBuffers[i].getInt();
-            pair[1] = bBuffers[i].getInt();
-            pair[2] = i;
-            pairs.add(pair);
+            runReaders[i] = new RunReader(dir+ File.separator +fileName+(b * indexStartRun + i), mergeIO);
+            runReaders[i].hasNextPair();
+            heads[i] = runReaders[i].nextPair();
         }
+        LoserTree tree = new LoserTree(heads, runsToMerge);
 
-        while (runsToMerge > 0){
-            minPair = pairs.poll();
-            index = minPair[2];
-            if (!outputBuffer.hasRemaining()) {
-                writer.write(outputBuffer.array(), 0, BLOCK_SIZE);
-                outputBuffer.clear();
-            }
-            outputBuffer.putInt(minPair[0]);
-            outputBuffer.putInt(minPair[1]);
+        while (!tree.isEmpty()){
+            int index = tree.getWinner();
+            output.addPair(tree.getWinnerKey());
 
-            if(!bBuffers[index].hasRemaining()){
-                //if we finished a whole run
-                int bytesRead = fileReaders[index].read(blockToRead, 0, BLOCK_SIZE);
-                if(bytesRead != -1){
-
-                    bBuffers[index] = ByteBuffer.allocate(bytesRead);
-                    bBuffers[index].put(blockToRead, 0, bytesRead);
-                    bBuffers[index].position(0);
-
-                    pair = new int[3];
-                    pair[0] = bBuffers[index].getInt();
-                    pair[1] = bBuffers[index].getInt();
-                    pair[2] = index;
-                    pairs.add(pair);
-                }
-                else{
-
-                    runsToMerge--;
-                    fileReaders[index].close();
-                    File oldFile = new File(dir + File.separator + fileName + (b * indexStartRun + index));
-                    oldFile.delete();
-                }
+            if (runReaders[index].hasNextPair()) {
+                tree.replaceWinner(runReaders[index].nextPair());
             }
             else {
-                pair = new int[3];
-                pair[0] = bBuffers[index].getInt();
-                pair[1] = bBuffers[index].getInt();
-                pair[2] = index;
-                pairs.add(pair);
+                //if we finished a whole run
+                tree.removeWinner();
+                runReaders[index].close();
+                File oldFile = new File(dir + File.separator + fileName + (b * indexStartRun + index));
+                oldFile.delete();
             }
         }
-        if(outputBuffer.position() > 0 ){
-            writer.write(outputBuffer.array(), 0, outputBuffer.position());
-        }
-        writer.close();
     }
 
     private int mergeBlocks(int totalNumOfRuns, String dir, int b, String fileName) throws IOException, InterruptedException {
@@ -529,7 +644,9 @@ public class IndexWriter {
 
             mergePool.execute(()->{
                 try {
-                    this.mergeRuns(runs, counter, b, dir, fileName);
+                    RunWriter writer = new RunWriter(dir + File.separator + fileName + counter + ".out", mergeIO);
+                    this.mergeRuns(runs, counter, b, dir, fileName, writer);
+                    writer.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
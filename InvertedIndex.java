@@ -1,223 +1,321 @@
 package webdata;
 
 import java.io.*;
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 
-public class InvertedIndex {
+public class InvertedIndex implements PairConsumer {
     private byte[] outputBuffer = new byte[Consts.BLOCK_SIZE];
     private int bufferOffset = 0;
+    private int postingsLength = 0;
+    private int prevReviewId = 0;
+    private int lengthOfPostingList = 0;
+    private int[] skipReviewIds = new int[Consts.BLOCK_SIZE];
+    private int[] skipOffsets = new int[Consts.BLOCK_SIZE];
+    private int numOfSkips = 0;
+    private ReviewsCollection reviews;
+    private double avgReviewLength;
+    private double maxImpact = 0;
+    private long[] postingPtrs;
+    private int[] frequencies;
+    private float[] maxImpacts;
+    private int[] rowToTermId;
+    private int[] reviewIdBases;
+    private Dictionary dictionary;
+    private boolean isProductId;
+    private BufferedOutputStream writer;
+    private long offset;
+    private int currTermId;
+    private int currReviewId;
+    private int freqTokenInReview;
 
 
+    public InvertedIndex() {
+    }
+
+    /**
+     * an inverted index for tokens, that also keeps the maximal bm25 impact of every posting list
+     */
+    public InvertedIndex(ReviewsCollection reviews) {
+        this.reviews = reviews;
+        this.avgReviewLength = reviews.getNumOfTokens() / (double)reviews.getSize();
+    }
+
+    /**
+     * used when the sorted pairs hold provisional ids (single pass indexing). rowToTermId maps every
+     * dictionary row to the provisional term id of its posting list, and a provisional review id is
+     * (thread << Consts.REVIEW_ID_THREAD_SHIFT | local id), the final id is reviewIdBases[thread] + local id.
+     * the mapping keeps the order of the review ids of each thread, so the posting lists stay sorted
+     */
+    public void setProvisionalIds(int[] rowToTermId, int[] reviewIdBases) {
+        this.rowToTermId = rowToTermId;
+        this.reviewIdBases = reviewIdBases;
+    }
 
-    public int addElementToBuffer(int elem, BufferedOutputStream writer) throws IOException {
-        int numOfBytes, shift;
-        byte[] newNumber = new byte[4];
-        if (elem <= 63){
-            numOfBytes = 1;
-            shift = 0;
+    private int getReviewId(int reviewIdInPair) {
+        if (reviewIdBases == null) {
+            return reviewIdInPair;
         }
-        else if (elem > 63 && elem <= 16383){
-            numOfBytes = 2;
-            shift = 1 << 14;
+        return reviewIdBases[reviewIdInPair >>> Consts.REVIEW_ID_THREAD_SHIFT] +
+                (reviewIdInPair & ((1 << Consts.REVIEW_ID_THREAD_SHIFT) - 1));
+    }
+
+    private int getTermId(int row) {
+        return rowToTermId == null ? row : rowToTermId[row];
+    }
+
+    /**
+     * the bm25 weight of a token that appears freq times in a review of the given length, without the idf
+     */
+    static double bm25Impact(int freq, int reviewLength, double avgReviewLength) {
+        return freq * (Consts.BM25_K1 + 1) /
+                (freq + Consts.BM25_K1 * (1 - Consts.BM25_B + Consts.BM25_B * reviewLength / avgReviewLength));
+    }
+
+    /**
+     * appends a number of the posting list to the output buffer, and writes the buffer out first when the
+     * number might not fit. returns the number of bytes of the number
+     */
+    public int addElementToBuffer(int elem) throws IOException {
+        if (bufferOffset + 4 > outputBuffer.length) {
+            //the postings are streamed, the buffer never holds more than one block of a posting list
+            writer.write(outputBuffer, 0, bufferOffset);
+            bufferOffset = 0;
+        }
+        int end = encodeNumber(elem, outputBuffer, bufferOffset);
+        int numOfBytes = end - bufferOffset;
+        bufferOffset = end;
+        postingsLength += numOfBytes;
+        return numOfBytes;
+    }
+
+    /**
+     * writes a non negative number below 2^30 at buffer[offset] in the 2 bit length prefix format, and returns
+     * the offset right after it
+     */
+    static int encodeNumber(int number, byte[] buffer, int offset) {
+        if (number <= 63) {
+            buffer[offset++] = (byte)number;
         }
-        else if (elem > 16384 && elem <= 4194303){
-            numOfBytes = 3;
-            shift = 2 << 22;
+        else if (number <= 16383) {
+            buffer[offset++] = (byte)(0x40 | (number >>> 8));
+            buffer[offset++] = (byte)number;
+        }
+        else if (number <= 4194303) {
+            buffer[offset++] = (byte)(0x80 | (number >>> 16));
+            buffer[offset++] = (byte)(number >>> 8);
+            buffer[offset++] = (byte)number;
         }
         else {
-            numOfBytes = 4;
-            shift = 3 << 30;
-        }
-
-        int data = shift + elem;
-        newNumber[0] = (byte) ((data & 0xFF000000) >> 24);
-        newNumber[1] = (byte) ((data & 0x00FF0000) >> 16);
-        newNumber[2] = (byte) ((data & 0x0000FF00) >> 8);
-        newNumber[3] = (byte) (data & 0x000000FF);
-        for (int i = 4 - numOfBytes; i < 4; i++) {
-            if (bufferOffset == Consts.BLOCK_SIZE) {
-                writer.write(outputBuffer);
-                outputBuffer = new byte[Consts.BLOCK_SIZE];
-                bufferOffset = 0;
-            }
-            outputBuffer[bufferOffset] = newNumber[i];
-            bufferOffset++;
+            buffer[offset++] = (byte)(0xC0 | (number >>> 24));
+            buffer[offset++] = (byte)(number >>> 16);
+            buffer[offset++] = (byte)(number >>> 8);
+            buffer[offset++] = (byte)number;
         }
-        return numOfBytes;
+        return offset;
     }
 
-    public void writeObject(Dictionary dictionary, String fileName, String dirName, String sortedFile, boolean isProductId, int b){
-
-        int prevReviewId = 0, nextReviewId, currReviewId = 0;
-        int nextTermId, freqTokenInReview = 0, currTermId = -1;
-        int bytesRead;
-        long offset = 0, postingPtr = 0;
-        String currToken;
-        int lengthOfPostingList = 0;
-        byte[] inputBuffer = new byte[b * Consts.BLOCK_SIZE];
-        ByteBuffer bufferOfPairs;
-        try {
-            BufferedInputStream reader = new BufferedInputStream(new FileInputStream(dirName + File.separator + sortedFile+"0"));
-            BufferedOutputStream writer = new BufferedOutputStream(new FileOutputStream(dirName + File.separator + fileName));
-
-            //block to read from sorted file
-            while ((bytesRead = reader.read(inputBuffer, 0, inputBuffer.length)) != -1) {
-                bufferOfPairs = ByteBuffer.wrap(inputBuffer, 0, bytesRead);
-
-                //run thruogh all pairs in block
-                while(bufferOfPairs.hasRemaining()){
-                    nextTermId =  bufferOfPairs.getInt();
-                    nextReviewId = bufferOfPairs.getInt();
-
-                    // if we have a new term id
-                    if(nextTermId != currTermId){
-                        if (currTermId != -1){
-                            offset += addElementToBuffer(currReviewId - prevReviewId, writer);
-                            if (!isProductId){
-                                offset += addElementToBuffer(freqTokenInReview, writer);
-                            }
-                            lengthOfPostingList++;
-                            currToken = IndexWriter.getToken(currTermId, isProductId);
-                            dictionary.addDictTableRow(currToken, lengthOfPostingList, postingPtr, currTermId, isProductId);
-                            postingPtr = offset;
-                        }
-                        currTermId = nextTermId;
-                        lengthOfPostingList = 0;
-                        prevReviewId = 0;
-                        freqTokenInReview = 1;
-                    }
-                    //the same term id
-                    else{
-                        //if its different review
-                        if (nextReviewId != currReviewId){
-                            offset += addElementToBuffer(currReviewId - prevReviewId, writer);
-                            if (!isProductId){
-                                offset += addElementToBuffer(freqTokenInReview, writer);
-                            }
-
-                            lengthOfPostingList++;
-                            freqTokenInReview = 1;
-                            prevReviewId = currReviewId;
-                        }
-                        else{
-                            freqTokenInReview++;
-                        }
-                    }
-                    currReviewId = nextReviewId;
-                }
+    /**
+     * adds one posting to the posting list that is currently built, and every Consts.SKIP_INTERVAL postings
+     * remembers the last review id and the offset where the next block starts
+     */
+    private void addPosting(int reviewId, int freqTokenInReview, boolean isProductId) throws IOException {
+        addElementToBuffer(reviewId - prevReviewId);
+        if (!isProductId){
+            addElementToBuffer(freqTokenInReview);
+        }
+        prevReviewId = reviewId;
+        lengthOfPostingList++;
+        if (reviews != null) {
+            maxImpact = Math.max(maxImpact, bm25Impact(freqTokenInReview, reviews.getLength(reviewId), avgReviewLength));
+        }
+        if (lengthOfPostingList % Consts.SKIP_INTERVAL == 0) {
+            if (numOfSkips == skipReviewIds.length) {
+                skipReviewIds = Arrays.copyOf(skipReviewIds, numOfSkips * 2);
+                skipOffsets = Arrays.copyOf(skipOffsets, numOfSkips * 2);
             }
-            if(currTermId != -1){
-                offset += addElementToBuffer(currReviewId - prevReviewId, writer);
-                if (!isProductId){
-                    offset += addElementToBuffer(freqTokenInReview, writer);
-                }
-                if (bufferOffset > 0){
-                    writer.write(outputBuffer);
-                }
-                lengthOfPostingList++;
-                currToken = IndexWriter.getToken(currTermId, isProductId);
-                dictionary.addDictTableRow(currToken, lengthOfPostingList, postingPtr, currTermId, isProductId);
+            skipReviewIds[numOfSkips] = reviewId;
+            skipOffsets[numOfSkips] = postingsLength;
+            numOfSkips++;
+        }
+    }
+
+    /**
+     * finishes the posting list that is currently built: writes the rest of its postings, and after them the
+     * skip table (only for lists longer than Consts.SKIP_INTERVAL) headed by the length of the postings in bytes.
+     * the posting pointer of a list with a skip table points to that header, otherwise to the postings.
+     * returns the number of bytes written since the list started
+     */
+    private long writePostingList(BufferedOutputStream writer, int termId) throws IOException {
+        int skipsToWrite = getNumOfSkips(lengthOfPostingList);
+        writer.write(outputBuffer, 0, bufferOffset);
+        postingPtrs[termId] = offset;
+        if (skipsToWrite > 0) {
+            postingPtrs[termId] += postingsLength;
+            DataOutputStream skipWriter = new DataOutputStream(writer);
+            skipWriter.writeInt(postingsLength);
+            for (int i = 0; i < skipsToWrite; i++) {
+                skipWriter.writeInt(skipReviewIds[i]);
+                skipWriter.writeInt(skipOffsets[i]);
             }
-            writer.close();
-            reader.close();
-            inputBuffer = null;
-
-            outputBuffer = null;
-            bufferOfPairs = null;
-            File f = new File(dirName + File.separator + sortedFile + "0");
-            f.delete();
-        }catch (IOException e){
-            System.err.println("IO Exception error");
-            System.exit(1);
-        }
-    }
-
-
-    private static int getIntFromByteArray(int numOfBytes, byte[] gapReviewIdBuff){
-        int numFromPostingList;
-        ByteBuffer wrapped = ByteBuffer.wrap(gapReviewIdBuff);
-        switch (numOfBytes) {
-            case 1:
-                numFromPostingList = wrapped.getInt();
-                break;
-            case 2:
-                numFromPostingList = wrapped.getInt() - (1 << 14);
-                break;
-            case 3:
-                numFromPostingList = wrapped.getInt() - (2 << 22);
-                break;
-            default:
-                numFromPostingList = wrapped.getInt() - (3 << 30);
-        }
-        wrapped = null;
-        return numFromPostingList;
-    }
-
-    public static int[] readProductIdPostingList(long offset, int lengthToRead, String fileName, String dir){
-        byte[] buffer = new byte[4*lengthToRead], gapReviewIdBuff;
-        int numOfBytes, reviewId = 0, numFromPostingList;
-        int[] postingList = new int[lengthToRead];
+        }
+        frequencies[termId] = lengthOfPostingList;
+        if (reviews != null) {
+            //rounded up so it stays an upper bound of every score computed from this posting list
+            maxImpacts[termId] = Math.nextUp((float)maxImpact);
+            maxImpact = 0;
+        }
+        long bytesWritten = postingsLength +
+                (skipsToWrite > 0 ? Consts.SKIP_HEADER_SIZE + (long)skipsToWrite * Consts.SKIP_ENTRY_SIZE : 0);
+        if (skipReviewIds.length > Consts.BLOCK_SIZE) {
+            //do not keep the skip arrays of a stop word list for the rest of the lists
+            skipReviewIds = new int[Consts.BLOCK_SIZE];
+            skipOffsets = new int[Consts.BLOCK_SIZE];
+        }
+        bufferOffset = 0;
+        postingsLength = 0;
+        prevReviewId = 0;
+        lengthOfPostingList = 0;
+        numOfSkips = 0;
+        return bytesWritten;
+    }
+
+    /**
+     * number of skip entries after a posting list with the given length, one for every
+     * Consts.SKIP_INTERVAL postings except the last block
+     */
+    static int getNumOfSkips(int lengthOfPostingList) {
+        return (lengthOfPostingList - 1) / Consts.SKIP_INTERVAL;
+    }
 
-        try {
-            RandomAccessFile inputFile = new RandomAccessFile(dir + File.separator + fileName, "r");
-            inputFile.seek(offset);
-            inputFile.read(buffer);
-            int bufferPtr = 0;
-            for (int i = 0; i < lengthToRead; i++){
-                gapReviewIdBuff = new byte[4];
-                numOfBytes = ((buffer[bufferPtr] >> 6) & 3) + 1;
-                System.arraycopy(buffer, bufferPtr, gapReviewIdBuff, 4 - numOfBytes, numOfBytes);
-
-                bufferPtr += numOfBytes;
-                numFromPostingList = getIntFromByteArray(numOfBytes, gapReviewIdBuff);
-                reviewId += numFromPostingList;
-                postingList[i] = reviewId;
+    /**
+     * the position of the first posting of the posting list at postingPtr. a list with a skip table is pointed
+     * at by the table, which starts with the length of the postings right before it
+     */
+    static long getPostingsStart(MappedFile inputFile, long postingPtr, int lengthOfPostingList) {
+        if (getNumOfSkips(lengthOfPostingList) == 0) {
+            return postingPtr;
+        }
+        return postingPtr - inputFile.getInt(postingPtr);
+    }
+
+    /**
+     * starts writing the posting lists to fileName. the pairs are then given in sorted order with addPair,
+     * and finishPostingLists writes the last posting list and adds the dictionary rows
+     */
+    public void startPostingLists(Dictionary dictionary, String fileName, String dirName, boolean isProductId)
+            throws IOException {
+        this.dictionary = dictionary;
+        this.isProductId = isProductId;
+        postingPtrs = new long[dictionary.getSize()];
+        frequencies = new int[dictionary.getSize()];
+        if (reviews != null) {
+            maxImpacts = new float[dictionary.getSize()];
+        }
+        writer = new BufferedOutputStream(new FileOutputStream(dirName + File.separator + fileName));
+        offset = 0;
+        currTermId = -1;
+        currReviewId = 0;
+        freqTokenInReview = 0;
+    }
+
+    @Override
+    public void addPair(long pair) throws IOException {
+        int nextTermId = (int)(pair >>> 32);
+        int nextReviewId = getReviewId((int)pair);
+
+        // if we have a new term id
+        if(nextTermId != currTermId){
+            if (currTermId != -1){
+                addPosting(currReviewId, freqTokenInReview, isProductId);
+                offset += writePostingList(writer, currTermId);
             }
-            inputFile.close();
-        }catch (IOException e){
-            System.err.println("IO Exception error");
-            System.exit(1);
+            currTermId = nextTermId;
+            freqTokenInReview = 1;
         }
-        buffer = null;
-        gapReviewIdBuff = null;
-        return postingList;
+        //the same term id
+        else{
+            //if its different review
+            if (nextReviewId != currReviewId){
+                addPosting(currReviewId, freqTokenInReview, isProductId);
+                freqTokenInReview = 1;
+            }
+            else{
+                freqTokenInReview++;
+            }
+        }
+        currReviewId = nextReviewId;
     }
 
-    public static int[][] readTokenPostingList(long offset, int lengthToRead, String fileName, String dir){
-        byte[] buffer = new byte[8*lengthToRead], gapReviewIdBuff;
-        int numOfBytes, reviewId = 0, numFromPostingList;
-        boolean isInReviewId = true;
-        int[][] postingList = new int[lengthToRead][2];
-
-        try {
-            RandomAccessFile inputFile = new RandomAccessFile(dir + File.separator + fileName, "r");
-            inputFile.seek(offset);
-            inputFile.read(buffer);
-            int bufferPtr = 0;
-            for (int i = 0; i < lengthToRead * 2; i++){
-                gapReviewIdBuff = new byte[4];
-                numOfBytes = ((buffer[bufferPtr] >> 6) & 3) + 1;
-                System.arraycopy(buffer, bufferPtr, gapReviewIdBuff, 4 - numOfBytes, numOfBytes);
-                bufferPtr += numOfBytes;
-                numFromPostingList = getIntFromByteArray(numOfBytes, gapReviewIdBuff);
-                if (isInReviewId) {
-                    reviewId += numFromPostingList;
-                    isInReviewId = false;
-                } else {
-                    postingList[i/2][0] = reviewId;
-                    postingList[i/2][1] = numFromPostingList;
-                    isInReviewId = true;
+    public void finishPostingLists() throws IOException {
+        if(currTermId != -1){
+            addPosting(currReviewId, freqTokenInReview, isProductId);
+            writePostingList(writer, currTermId);
+        }
+        //the dictionary rows are added in sorted token order, which is the term id order unless the ids are provisional
+        for (int row = 0; row < dictionary.getSize(); row++) {
+            int termId = getTermId(row);
+            dictionary.addDictTableRow(IndexWriter.getToken(row, isProductId), frequencies[termId],
+                    postingPtrs[termId]);
+        }
+        writer.close();
+        writer = null;
+        outputBuffer = null;
+    }
+
+
+    /**
+     * writes the maximal bm25 impact of every posting list, one float per dictionary row
+     */
+    public void writeImpacts(String fileName, String dirName) throws IOException {
+        DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                dirName + File.separator + fileName)));
+        for (int row = 0; row < maxImpacts.length; row++) {
+            writer.writeFloat(maxImpacts[getTermId(row)]);
+        }
+        writer.close();
+    }
+
+    /**
+     * decodes numOfReviews postings of the 2 bit length prefix format straight from the mapped file into
+     * primitive arrays, without allocating anything per number. the review ids are stored as gaps from
+     * prevReviewId. if freqs is null the postings have no frequencies (product id posting lists)
+     * returns the position right after the last decoded posting
+     */
+    static long decodePostings(MappedFile inputFile, long position, int numOfReviews, int prevReviewId,
+                               int[] reviewIds, int[] freqs) {
+        int firstByte, numOfBytes, number, reviewId = prevReviewId;
+        for (int i = 0; i < numOfReviews; i++) {
+            firstByte = inputFile.get(position++);
+            number = firstByte & 0x3F;
+            for (numOfBytes = (firstByte >> 6) & 3; numOfBytes > 0; numOfBytes--) {
+                number = (number << 8) | (inputFile.get(position++) & 0xFF);
+            }
+            reviewId += number;
+            reviewIds[i] = reviewId;
+            if (freqs != null) {
+                firstByte = inputFile.get(position++);
+                number = firstByte & 0x3F;
+                for (numOfBytes = (firstByte >> 6) & 3; numOfBytes > 0; numOfBytes--) {
+                    number = (number << 8) | (inputFile.get(position++) & 0xFF);
                 }
+                freqs[i] = number;
             }
-            inputFile.close();
-        }catch (IOException e){
-            System.err.println("IO Exception error");
-            System.exit(1);
         }
-        buffer = null;
-        gapReviewIdBuff = null;
+        return position;
+    }
+
+    public static int[] readProductIdPostingList(long offset, int lengthToRead, MappedFile inputFile){
+        int[] postingList = new int[lengthToRead];
+        decodePostings(inputFile, getPostingsStart(inputFile, offset, lengthToRead), lengthToRead, 0, postingList, null);
         return postingList;
     }
 
+    /**
+     * fills reviewIds and freqs with the first lengthToRead postings of the token posting list at offset
+     */
+    public static void readTokenPostingList(long offset, int lengthToRead, MappedFile inputFile, int[] reviewIds,
+                                            int[] freqs){
+        decodePostings(inputFile, getPostingsStart(inputFile, offset, lengthToRead), lengthToRead, 0, reviewIds, freqs);
+    }
+
 }
@@ -0,0 +1,94 @@
+package webdata;
+
+/**
+ * tournament tree for merging k sorted runs of long keys. every inner node keeps the run that lost the
+ * match played there and tree[0] keeps the overall winner, so replacing the smallest key only replays the
+ * matches on the path from its leaf to the root, log(k) comparisons and no allocations
+ */
+public class LoserTree {
+    private int[] tree;
+    private long[] keys;
+    private boolean[] exhausted;
+    private int numOfRuns;
+    private int runsLeft;
+
+    /**
+     * keys holds the first key of every run, and the tree keeps using (and updating) this array
+     */
+    public LoserTree(long[] keys, int numOfRuns) {
+        this.keys = keys;
+        this.numOfRuns = numOfRuns;
+        this.runsLeft = numOfRuns;
+        this.exhausted = new boolean[numOfRuns];
+        this.tree = new int[Math.max(numOfRuns, 1)];
+        int[] winners = new int[2 * numOfRuns];
+        for (int i = 0; i < numOfRuns; i++) {
+            winners[numOfRuns + i] = i;
+        }
+        for (int node = numOfRuns - 1; node >= 1; node--) {
+            int left = winners[2 * node], right = winners[2 * node + 1];
+            if (this.isSmaller(left, right)) {
+                winners[node] = left;
+                this.tree[node] = right;
+            } else {
+                winners[node] = right;
+                this.tree[node] = left;
+            }
+        }
+        this.tree[0] = numOfRuns > 1 ? winners[1] : 0;
+    }
+
+    /**
+     * the run with the smallest key
+     */
+    public int getWinner() {
+        return this.tree[0];
+    }
+
+    public long getWinnerKey() {
+        return this.keys[this.tree[0]];
+    }
+
+    public boolean isEmpty() {
+        return this.runsLeft == 0;
+    }
+
+    /**
+     * replaces the key of the winner run with the next key of that run
+     */
+    public void replaceWinner(long key) {
+        this.keys[this.tree[0]] = key;
+        this.replay();
+    }
+
+    /**
+     * removes the winner run from the tournament after its last key was taken
+     */
+    public void removeWinner() {
+        this.exhausted[this.tree[0]] = true;
+        this.runsLeft--;
+        this.replay();
+    }
+
+    private void replay() {
+        int winner = this.tree[0];
+        for (int node = (winner + this.numOfRuns) >>> 1; node >= 1; node >>>= 1) {
+            if (this.isSmaller(this.tree[node], winner)) {
+                int loser = winner;
+                winner = this.tree[node];
+                this.tree[node] = loser;
+            }
+        }
+        this.tree[0] = winner;
+    }
+
+    private boolean isSmaller(int run, int otherRun) {
+        if (this.exhausted[run]) {
+            return false;
+        }
+        if (this.exhausted[otherRun]) {
+            return true;
+        }
+        return this.keys[run] < this.keys[otherRun] || (this.keys[run] == this.keys[otherRun] && run < otherRun);
+    }
+}
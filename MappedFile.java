@@ -0,0 +1,73 @@
+package webdata;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * read only view of an index file that is mapped once and then read in place.
+ * the file is mapped in segments of 1GB so files larger than 2GB can be addressed with a long position.
+ * every read is absolute and never moves the position of a segment, so threads can share one MappedFile
+ */
+public class MappedFile {
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final MappedByteBuffer[] segments;
+    private final long size;
+
+    public MappedFile(String fileName, String dir) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(dir + File.separator + fileName, "r");
+        FileChannel channel = file.getChannel();
+        this.size = channel.size();
+        this.segments = new MappedByteBuffer[(int)((this.size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+        for (int i = 0; i < this.segments.length; i++) {
+            long start = (long)i << SEGMENT_SHIFT;
+            this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, this.size - start));
+        }
+        //the mapping stays valid after the channel is closed
+        file.close();
+    }
+
+    public long size() {
+        return this.size;
+    }
+
+    public byte get(long position) {
+        return this.segments[(int)(position >>> SEGMENT_SHIFT)].get((int)(position & SEGMENT_MASK));
+    }
+
+    public short getShort(long position) {
+        MappedByteBuffer segment = this.segments[(int)(position >>> SEGMENT_SHIFT)];
+        int positionInSegment = (int)(position & SEGMENT_MASK);
+        if (positionInSegment + 2 <= segment.limit()) {
+            return segment.getShort(positionInSegment);
+        }
+        return (short)(((get(position) & 0xFF) << 8) | (get(position + 1) & 0xFF));
+    }
+
+    public int getInt(long position) {
+        MappedByteBuffer segment = this.segments[(int)(position >>> SEGMENT_SHIFT)];
+        int positionInSegment = (int)(position & SEGMENT_MASK);
+        if (positionInSegment + 4 <= segment.limit()) {
+            return segment.getInt(positionInSegment);
+        }
+        //the int is split between two segments
+        return ((get(position) & 0xFF) << 24) | ((get(position + 1) & 0xFF) << 16) |
+                ((get(position + 2) & 0xFF) << 8) | (get(position + 3) & 0xFF);
+    }
+
+    public float getFloat(long position) {
+        return Float.intBitsToFloat(getInt(position));
+    }
+
+    public long getLong(long position) {
+        MappedByteBuffer segment = this.segments[(int)(position >>> SEGMENT_SHIFT)];
+        int positionInSegment = (int)(position & SEGMENT_MASK);
+        if (positionInSegment + 8 <= segment.limit()) {
+            return segment.getLong(positionInSegment);
+        }
+        return ((long)getInt(position) << 32) | (getInt(position + 4) & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,76 @@
+package webdata;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * background reads and writes for the sort runs, so the parsing and merging threads encode, decode and
+ * compare pairs while the disk is busy. it also counts the time the threads spent waiting for a read or a write
+ */
+public class MergeIO {
+    private ExecutorService ioPool;
+    private AtomicLong readWaitNanos = new AtomicLong();
+    private AtomicLong writeWaitNanos = new AtomicLong();
+
+    public MergeIO(int numOfThreads) {
+        this.ioPool = Executors.newFixedThreadPool(numOfThreads, task -> {
+            Thread thread = new Thread(task, "merge-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    <T> Future<T> submit(Callable<T> task) {
+        return this.ioPool.submit(task);
+    }
+
+    /**
+     * waits for a read that was submitted before and returns its result
+     */
+    <T> T awaitRead(Future<T> read) throws IOException {
+        return await(read, this.readWaitNanos);
+    }
+
+    void awaitWrite(Future<?> write) throws IOException {
+        await(write, this.writeWaitNanos);
+    }
+
+    private static <T> T await(Future<T> task, AtomicLong waitNanos) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } finally {
+            waitNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * the time in milliseconds the threads waited for the next block of a run, summed over the threads
+     */
+    public long getReadWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(this.readWaitNanos.get());
+    }
+
+    /**
+     * the time in milliseconds the threads waited for a block to be written, summed over the threads
+     */
+    public long getWriteWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(this.writeWaitNanos.get());
+    }
+
+    /**
+     * stops the io threads once the submitted reads and writes are done. the wait times stay readable
+     */
+    public void shutdown() {
+        this.ioPool.shutdown();
+    }
+}
@@ -0,0 +1,11 @@
+package webdata;
+
+import java.io.IOException;
+
+/**
+ * receives the (term id, review id) pairs of a merge in sorted order. every pair is packed in one long,
+ * the term id in the high 32 bits and the review id in the low 32 bits
+ */
+public interface PairConsumer {
+    void addPair(long pair) throws IOException;
+}
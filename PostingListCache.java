@@ -0,0 +1,312 @@
+package webdata;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * keeps decoded posting lists in memory up to a budget of bytes, keyed by dictionary row.
+ * the eviction is frequency aware in the way of W-TinyLFU: a new list enters a small LRU window, and when it
+ * leaves the window it only enters the main part (a segmented LRU of probation and protected lists) if it was
+ * asked for more often than the list it would evict. how often a list was asked for is estimated by a small
+ * count-min sketch that is halved from time to time, so a burst of one time lookups does not flush the lists
+ * that are asked for all the time. a list too big for the window goes straight to that admission test.
+ * all the lists are guarded by one lock, the decoding is done outside of it
+ */
+public class PostingListCache {
+    private static final double WINDOW_SHARE = 0.01;
+    private static final double PROTECTED_SHARE = 0.8;
+    //an estimate of the memory of an entry besides its arrays
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * a decoded posting list. freqs is null for the posting lists of products
+     */
+    public static class PostingList {
+        final int[] reviewIds;
+        final int[] freqs;
+
+        PostingList(int[] reviewIds, int[] freqs) {
+            this.reviewIds = reviewIds;
+            this.freqs = freqs;
+        }
+
+        long getSize() {
+            return PostingListCache.getSize(this.reviewIds.length, this.freqs != null);
+        }
+    }
+
+    private static long getSize(int numOfPostings, boolean hasFreqs) {
+        return ENTRY_OVERHEAD + 4L * numOfPostings * (hasFreqs ? 2 : 1);
+    }
+
+    private long maxBytes;
+    private long windowMaxBytes;
+    private long protectedMaxBytes;
+    private long windowBytes = 0;
+    private long probationBytes = 0;
+    private long protectedBytes = 0;
+    //the maps are in insertion order, the least recently used list is the first one
+    private LinkedHashMap<Long, PostingList> window = new LinkedHashMap<>();
+    private LinkedHashMap<Long, PostingList> probation = new LinkedHashMap<>();
+    private LinkedHashMap<Long, PostingList> protectedLists = new LinkedHashMap<>();
+    private FrequencySketch sketch;
+    private ReentrantLock lock = new ReentrantLock();
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
+
+    /**
+     * a cache that holds at most maxBytes of posting lists, 0 turns the cache off
+     */
+    PostingListCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.windowMaxBytes = Math.max((long)(maxBytes * WINDOW_SHARE), Math.min(maxBytes / 2, 64 * 1024));
+        this.protectedMaxBytes = (long)((maxBytes - this.windowMaxBytes) * PROTECTED_SHARE);
+        this.sketch = new FrequencySketch(maxBytes);
+    }
+
+    /**
+     * the key of the posting list in the given row of the token dictionary or of the product dictionary
+     */
+    static long getKey(int row, boolean isProductId) {
+        return isProductId ? (1L << 32) | row : row;
+    }
+
+    /**
+     * whether a posting list of the given length can be kept, it has to fit the main part of the cache.
+     * a list that can not is not worth decoding into arrays at all
+     */
+    boolean canHold(int numOfPostings, boolean hasFreqs) {
+        return getSize(numOfPostings, hasFreqs) <= this.getMainMaxBytes();
+    }
+
+    /**
+     * returns the cached posting list, null if it is not in the cache
+     */
+    PostingList get(long key) {
+        PostingList postingList;
+        this.lock.lock();
+        try {
+            this.sketch.increment(key);
+            postingList = this.window.remove(key);
+            if (postingList != null) {
+                this.window.put(key, postingList);
+            }
+            else if ((postingList = this.probation.remove(key)) != null) {
+                //asked for again while on probation, the list is protected from now on
+                this.probationBytes -= postingList.getSize();
+                this.protectedLists.put(key, postingList);
+                this.protectedBytes += postingList.getSize();
+                this.demoteProtected();
+            }
+            else if ((postingList = this.protectedLists.remove(key)) != null) {
+                this.protectedLists.put(key, postingList);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        if (postingList == null) {
+            this.misses.incrementAndGet();
+        }
+        else {
+            this.hits.incrementAndGet();
+        }
+        return postingList;
+    }
+
+    /**
+     * adds a posting list that was decoded after get returned null
+     */
+    void put(long key, PostingList postingList) {
+        if (!this.canHold(postingList.reviewIds.length, postingList.freqs != null)) {
+            return;
+        }
+        this.lock.lock();
+        try {
+            if (this.window.containsKey(key) || this.probation.containsKey(key) || this.protectedLists.containsKey(key)) {
+                //another thread added it first
+                return;
+            }
+            if (postingList.getSize() > this.windowMaxBytes) {
+                //it would flush the whole window, so it competes for the main part right away
+                this.admit(key, postingList);
+                return;
+            }
+            this.window.put(key, postingList);
+            this.windowBytes += postingList.getSize();
+            while (this.windowBytes > this.windowMaxBytes) {
+                Iterator<Map.Entry<Long, PostingList>> oldest = this.window.entrySet().iterator();
+                Map.Entry<Long, PostingList> candidate = oldest.next();
+                oldest.remove();
+                this.windowBytes -= candidate.getValue().getSize();
+                this.admit(candidate.getKey(), candidate.getValue());
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * moves a list that left the window (or skipped it) to the main part, if it is asked for more often than
+     * every list it would evict. the victims are the least recently used lists on probation, and then the least
+     * recently used protected ones, and nothing is evicted unless the candidate is admitted
+     */
+    private void admit(long key, PostingList candidate) {
+        long size = candidate.getSize();
+        if (size > this.getMainMaxBytes()) {
+            this.evictions.incrementAndGet();
+            return;
+        }
+        int candidateFrequency = this.sketch.frequency(key);
+        long freedBytes = 0;
+        int probationVictims = 0, protectedVictims = 0;
+        Iterator<Map.Entry<Long, PostingList>> victims = this.probation.entrySet().iterator();
+        while (this.getMainBytes() - freedBytes + size > this.getMainMaxBytes()) {
+            if (!victims.hasNext()) {
+                //size fits the main part, so the protected lists are enough when probation runs out
+                victims = this.protectedLists.entrySet().iterator();
+            }
+            Map.Entry<Long, PostingList> victim = victims.next();
+            if (this.sketch.frequency(victim.getKey()) >= candidateFrequency) {
+                this.evictions.incrementAndGet();
+                return;
+            }
+            freedBytes += victim.getValue().getSize();
+            if (probationVictims < this.probation.size()) {
+                probationVictims++;
+            }
+            else {
+                protectedVictims++;
+            }
+        }
+        this.probationBytes -= evictOldest(this.probation, probationVictims);
+        this.protectedBytes -= evictOldest(this.protectedLists, protectedVictims);
+        this.probation.put(key, candidate);
+        this.probationBytes += size;
+    }
+
+    /**
+     * removes the given number of least recently used lists, and returns their size
+     */
+    private long evictOldest(LinkedHashMap<Long, PostingList> lists, int numOfLists) {
+        long bytes = 0;
+        Iterator<Map.Entry<Long, PostingList>> oldest = lists.entrySet().iterator();
+        for (int i = 0; i < numOfLists; i++) {
+            bytes += oldest.next().getValue().getSize();
+            oldest.remove();
+            this.evictions.incrementAndGet();
+        }
+        return bytes;
+    }
+
+    /**
+     * moves the least recently used protected lists back to probation while the protected part is too big
+     */
+    private void demoteProtected() {
+        while (this.protectedBytes > this.protectedMaxBytes) {
+            Iterator<Map.Entry<Long, PostingList>> oldest = this.protectedLists.entrySet().iterator();
+            Map.Entry<Long, PostingList> demoted = oldest.next();
+            oldest.remove();
+            this.protectedBytes -= demoted.getValue().getSize();
+            this.probation.put(demoted.getKey(), demoted.getValue());
+            this.probationBytes += demoted.getValue().getSize();
+        }
+    }
+
+    private long getMainMaxBytes() {
+        return this.maxBytes - this.windowMaxBytes;
+    }
+
+    private long getMainBytes() {
+        return this.probationBytes + this.protectedBytes;
+    }
+
+    /**
+     * the number of bytes of all the lists in the cache
+     */
+    public long getSize() {
+        this.lock.lock();
+        try {
+            return this.windowBytes + this.getMainBytes();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * the number of lists that were dropped from the cache, or not let into its main part
+     */
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    /**
+     * count-min sketch of 4 rows of 4 bit counters, packed 16 to a long. after sampleSize increments all the
+     * counters are halved, so the estimates follow the recent lookups
+     */
+    private static class FrequencySketch {
+        private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+                0xD6E8FEB86659FD93L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private long[] table;
+        private int sampleSize;
+        private int additions = 0;
+
+        FrequencySketch(long maxBytes) {
+            //about one counter per list, assuming lists of a few hundred bytes
+            long counters = Math.max(1024, Math.min(1 << 24, maxBytes / 256));
+            this.table = new long[Integer.highestOneBit((int)counters) / 4];
+            this.sampleSize = 10 * this.table.length * 4;
+        }
+
+        private int getIndex(long key, int row) {
+            long hash = (key + SEEDS[row]) * SEEDS[row];
+            hash ^= hash >>> 32;
+            return (int)hash & (this.table.length - 1);
+        }
+
+        private int getShift(long key, int row) {
+            //4 rows share a long, every row gets its own 4 of the 16 counters in it
+            return ((row << 2) + (int)((key * SEEDS[3 - row]) >>> 62)) << 2;
+        }
+
+        int frequency(long key) {
+            int frequency = 15;
+            for (int row = 0; row < 4; row++) {
+                frequency = Math.min(frequency, (int)((this.table[this.getIndex(key, row)] >>> this.getShift(key, row)) & 0xF));
+            }
+            return frequency;
+        }
+
+        void increment(long key) {
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                int index = this.getIndex(key, row);
+                int shift = this.getShift(key, row);
+                if (((this.table[index] >>> shift) & 0xF) < 15) {
+                    this.table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++this.additions == this.sampleSize) {
+                for (int i = 0; i < this.table.length; i++) {
+                    this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+                }
+                this.additions /= 2;
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package webdata;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * measures decoding one long token posting list with InvertedIndex.decodePostings against the decoder it
+ * replaced, which allocated a byte[4] and a ByteBuffer for every number and an int[2] for every posting.
+ * the list is synthetic, with gaps and frequencies of all 4 encoded lengths, and is written to a temporary
+ * file that is mapped like the index. usage: PostingsBenchmark [numOfPostings] [dir].
+ * exits with 1 if the two decoders differ
+ */
+public class PostingsBenchmark {
+    private static final String FILE_NAME = "postingsBenchmarkObj";
+    private static final int ROUNDS = 5;
+
+    /**
+     * mostly small gaps and frequencies, like the list of a common token, with a few of every longer length
+     */
+    private static int getNumber(Random random) {
+        int kind = random.nextInt(100);
+        if (kind < 80) {
+            return random.nextInt(64);
+        }
+        if (kind < 95) {
+            return 64 + random.nextInt(16384 - 64);
+        }
+        if (kind < 99) {
+            return 16384 + random.nextInt(4194304 - 16384);
+        }
+        return 4194304 + random.nextInt(1 << 24);
+    }
+
+    private static void writeList(File file, int numOfPostings) throws IOException {
+        Random random = new Random(7);
+        BufferedOutputStream writer = new BufferedOutputStream(new FileOutputStream(file));
+        byte[] buffer = new byte[8];
+        for (int i = 0; i < numOfPostings; i++) {
+            int end = InvertedIndex.encodeNumber(1 + getNumber(random) / 64, buffer, 0);
+            end = InvertedIndex.encodeNumber(1 + getNumber(random), buffer, end);
+            writer.write(buffer, 0, end);
+        }
+        writer.close();
+    }
+
+    /**
+     * the decoder before InvertedIndex.decodePostings
+     */
+    private static int[][] decodeWithAllocations(MappedFile inputFile, long offset, int lengthToRead) {
+        int reviewId = 0;
+        boolean isInReviewId = true;
+        int[][] postingList = new int[lengthToRead][2];
+        long bufferPtr = offset;
+        for (int i = 0; i < lengthToRead * 2; i++) {
+            byte[] numberBuffer = new byte[4];
+            int numOfBytes = ((inputFile.get(bufferPtr) >> 6) & 3) + 1;
+            for (int j = 4 - numOfBytes; j < 4; j++) {
+                numberBuffer[j] = inputFile.get(bufferPtr);
+                bufferPtr++;
+            }
+            int number = ByteBuffer.wrap(numberBuffer).getInt() - ((numOfBytes - 1) << (8 * numOfBytes - 2));
+            if (isInReviewId) {
+                reviewId += number;
+                isInReviewId = false;
+            } else {
+                postingList[i / 2][0] = reviewId;
+                postingList[i / 2][1] = number;
+                isInReviewId = true;
+            }
+        }
+        return postingList;
+    }
+
+    public static void main(String[] args) {
+        int numOfPostings = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+        String dir = args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir");
+        File file = new File(dir, FILE_NAME);
+        MappedFile inputFile = null;
+        try {
+            writeList(file, numOfPostings);
+            inputFile = new MappedFile(FILE_NAME, dir);
+        } catch (IOException e) {
+            System.err.println("IO Exception Error");
+            System.exit(1);
+        }
+        file.deleteOnExit();
+        System.out.println(numOfPostings + " postings, " + inputFile.size() + " bytes");
+
+        int[] reviewIds = new int[numOfPostings];
+        int[] freqs = new int[numOfPostings];
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            int[][] postingList = decodeWithAllocations(inputFile, 0, numOfPostings);
+            long allocatingTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            InvertedIndex.decodePostings(inputFile, 0, numOfPostings, 0, reviewIds, freqs);
+            long decodeTime = System.nanoTime() - start;
+            for (int i = 0; i < numOfPostings; i++) {
+                if (postingList[i][0] != reviewIds[i] || postingList[i][1] != freqs[i]) {
+                    System.err.println("the decoders differ at posting " + i);
+                    System.exit(1);
+                }
+            }
+            System.out.printf("round %d: with allocations %.1f ms, decodePostings %.1f ms (%.1fM postings/s)%n",
+                    round + 1, allocatingTime / 1e6, decodeTime / 1e6, numOfPostings * 1e3 / decodeTime);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package webdata;
+
+/**
+ * iterates over one posting list in review id order. the postings are decoded one block of
+ * Consts.SKIP_INTERVAL postings at a time, and advance uses the skip table after the postings
+ * to jump over blocks without decoding them
+ */
+public class PostingsCursor implements DocIdCursor {
+    private MappedFile inputFile;
+    private long postingPtr;
+    private long postingsStart;
+    private int lengthOfPostingList;
+    private int numOfSkips;
+    private boolean hasFreqs;
+
+    private int[] reviewIds;
+    private int[] freqs;
+    private int blockIndex = -1;
+    private int blockLength = 0;
+    private int positionInBlock = 0;
+    private long nextBlockPtr;
+    private int docId = -1;
+
+    PostingsCursor(MappedFile inputFile, long postingPtr, int lengthOfPostingList, boolean hasFreqs) {
+        this.inputFile = inputFile;
+        this.postingPtr = postingPtr;
+        this.lengthOfPostingList = lengthOfPostingList;
+        this.numOfSkips = InvertedIndex.getNumOfSkips(lengthOfPostingList);
+        this.postingsStart = InvertedIndex.getPostingsStart(inputFile, postingPtr, lengthOfPostingList);
+        this.nextBlockPtr = this.postingsStart;
+        this.hasFreqs = hasFreqs;
+        //short posting lists (most of the cursors of a prefix query) get blocks of their own size
+        this.reviewIds = new int[Math.min(lengthOfPostingList, Consts.SKIP_INTERVAL)];
+        if (hasFreqs) {
+            this.freqs = new int[this.reviewIds.length];
+        }
+        if (lengthOfPostingList == 0) {
+            this.docId = NO_MORE_DOCS;
+        }
+    }
+
+    @Override
+    public int docId() {
+        return this.docId;
+    }
+
+    /**
+     * the number of times the term appears in the current review (always 1 for product id postings)
+     */
+    public int freq() {
+        return this.hasFreqs ? this.freqs[this.positionInBlock] : 1;
+    }
+
+    /**
+     * the number of reviews in the posting list
+     */
+    @Override
+    public long cost() {
+        return this.lengthOfPostingList;
+    }
+
+    @Override
+    public int nextDoc() {
+        if (this.docId == NO_MORE_DOCS) {
+            return NO_MORE_DOCS;
+        }
+        if (this.positionInBlock + 1 < this.blockLength) {
+            this.positionInBlock++;
+            this.docId = this.reviewIds[this.positionInBlock];
+            return this.docId;
+        }
+        if (this.blockIndex + 1 > this.numOfSkips) {
+            this.docId = NO_MORE_DOCS;
+            return NO_MORE_DOCS;
+        }
+        int prevReviewId = this.blockLength > 0 ? this.reviewIds[this.blockLength - 1] : 0;
+        this.decodeBlock(this.blockIndex + 1, this.nextBlockPtr, prevReviewId);
+        this.docId = this.reviewIds[0];
+        return this.docId;
+    }
+
+    @Override
+    public int advance(int target) {
+        if (this.docId >= target) {
+            return this.docId;
+        }
+        if (this.blockLength == 0 || this.reviewIds[this.blockLength - 1] < target) {
+            if (!this.skipToBlock(target)) {
+                this.docId = NO_MORE_DOCS;
+                return NO_MORE_DOCS;
+            }
+        }
+        //galloping search inside the decoded block
+        int low = this.positionInBlock, bound = 1;
+        while (low + bound < this.blockLength && this.reviewIds[low + bound] < target) {
+            low += bound;
+            bound <<= 1;
+        }
+        int high = Math.min(low + bound, this.blockLength - 1);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.reviewIds[middle] < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        this.positionInBlock = low;
+        this.docId = this.reviewIds[low];
+        return this.docId;
+    }
+
+    /**
+     * decodes the first block that may contain target, found by binary search over the skip table.
+     * returns false if target is greater than every review id in the posting list
+     */
+    private boolean skipToBlock(int target) {
+        int left = this.blockIndex + 1, right = this.numOfSkips;
+        //the last block has no skip entry, its last review id is not stored
+        while (left < right) {
+            int middle = (left + right) >>> 1;
+            if (this.getSkipReviewId(middle) < target) {
+                left = middle + 1;
+            } else {
+                right = middle;
+            }
+        }
+        if (left > this.numOfSkips) {
+            return false;
+        }
+        if (left == this.blockIndex + 1 && this.blockLength > 0) {
+            this.decodeBlock(left, this.nextBlockPtr, this.reviewIds[this.blockLength - 1]);
+        } else if (left == 0) {
+            this.decodeBlock(0, this.postingsStart, 0);
+        } else {
+            this.decodeBlock(left, this.postingsStart + this.getSkipOffset(left - 1), this.getSkipReviewId(left - 1));
+        }
+        return this.reviewIds[this.blockLength - 1] >= target;
+    }
+
+    private void decodeBlock(int blockIndex, long blockPtr, int prevReviewId) {
+        this.blockIndex = blockIndex;
+        this.blockLength = blockIndex < this.numOfSkips ? Consts.SKIP_INTERVAL :
+                this.lengthOfPostingList - this.numOfSkips * Consts.SKIP_INTERVAL;
+        this.nextBlockPtr = InvertedIndex.decodePostings(this.inputFile, blockPtr, this.blockLength, prevReviewId,
+                this.reviewIds, this.freqs);
+        this.positionInBlock = 0;
+    }
+
+    private int getSkipReviewId(int skipIndex) {
+        return this.inputFile.getInt(this.postingPtr + Consts.SKIP_HEADER_SIZE + (long)skipIndex * Consts.SKIP_ENTRY_SIZE);
+    }
+
+    private int getSkipOffset(int skipIndex) {
+        return this.inputFile.getInt(this.postingPtr + Consts.SKIP_HEADER_SIZE + (long)skipIndex * Consts.SKIP_ENTRY_SIZE + 4);
+    }
+}
@@ -0,0 +1,68 @@
+package webdata;
+
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+/**
+ * the Enumeration of the old IndexReader api on top of a posting list: review ids, or review id and freq pairs
+ * when withFreqs is set. the values are read from a cursor or from a cached posting list only when they are
+ * asked for, so a long posting list is never copied into a Vector
+ */
+class PostingsEnumeration implements Enumeration<Integer> {
+    private PostingsCursor cursor;
+    private int[] reviewIds;
+    private int[] freqs;
+    private boolean withFreqs;
+    private int position = 0;
+    private boolean onFreq = false;
+    private boolean hasNext;
+
+    PostingsEnumeration(PostingsCursor cursor, boolean withFreqs) {
+        this.cursor = cursor;
+        this.withFreqs = withFreqs;
+        this.hasNext = cursor.nextDoc() != DocIdCursor.NO_MORE_DOCS;
+    }
+
+    PostingsEnumeration(PostingListCache.PostingList postingList, boolean withFreqs) {
+        this.reviewIds = postingList.reviewIds;
+        this.freqs = postingList.freqs;
+        this.withFreqs = withFreqs;
+        this.hasNext = this.reviewIds.length > 0;
+    }
+
+    @Override
+    public boolean hasMoreElements() {
+        return this.hasNext;
+    }
+
+    @Override
+    public Integer nextElement() {
+        if (!this.hasNext) {
+            throw new NoSuchElementException();
+        }
+        int value;
+        if (this.onFreq) {
+            value = this.cursor != null ? this.cursor.freq() : this.freqs[this.position];
+        }
+        else {
+            value = this.cursor != null ? this.cursor.docId() : this.reviewIds[this.position];
+        }
+        if (this.withFreqs && !this.onFreq) {
+            this.onFreq = true;
+        }
+        else {
+            this.onFreq = false;
+            this.moveToNextPosting();
+        }
+        return value;
+    }
+
+    private void moveToNextPosting() {
+        if (this.cursor != null) {
+            this.hasNext = this.cursor.nextDoc() != DocIdCursor.NO_MORE_DOCS;
+        }
+        else {
+            this.hasNext = ++this.position < this.reviewIds.length;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package webdata;
+
+import java.io.*;
+
+/**
+ * aggregates of the reviews of every product, by the row of the product in the product dictionary.
+ * productStatsObj has the number of products and then one fixed width column for every aggregate: the number
+ * of reviews (int), the sum of their scores (int), the sum of their helpfulness numerators (long) and the sum
+ * of their helpfulness denominators (long). the reader maps the file and reads it in place
+ */
+public class ProductStats {
+    public enum Metric {REVIEW_COUNT, AVERAGE_SCORE, HELPFUL_VOTES}
+
+    private static final int HEADER_SIZE = 4;
+
+    //used while the index is written
+    private int[] reviewCounts;
+    private int[] scoreSums;
+    private long[] helpfulnessNumeratorSums;
+    private long[] helpfulnessDenominatorSums;
+
+    //used while the index is read
+    private MappedFile statsFile;
+    private long scoreSumsStart;
+    private long helpfulnessNumeratorSumsStart;
+    private long helpfulnessDenominatorSumsStart;
+
+    private int numOfProducts;
+
+    public ProductStats(int numOfProducts) {
+        this.numOfProducts = numOfProducts;
+        this.reviewCounts = new int[numOfProducts];
+        this.scoreSums = new int[numOfProducts];
+        this.helpfulnessNumeratorSums = new long[numOfProducts];
+        this.helpfulnessDenominatorSums = new long[numOfProducts];
+    }
+
+    private ProductStats(MappedFile statsFile) {
+        this.statsFile = statsFile;
+        this.numOfProducts = statsFile.getInt(0);
+        this.scoreSumsStart = HEADER_SIZE + 4L * this.numOfProducts;
+        this.helpfulnessNumeratorSumsStart = this.scoreSumsStart + 4L * this.numOfProducts;
+        this.helpfulnessDenominatorSumsStart = this.helpfulnessNumeratorSumsStart + 8L * this.numOfProducts;
+    }
+
+    /**
+     * the aggregates of the given reviews, whose product ids are already rows of the product dictionary
+     */
+    public static ProductStats of(ReviewsCollection reviews, int numOfProducts) {
+        ProductStats stats = new ProductStats(numOfProducts);
+        for (int reviewId = 1; reviewId <= reviews.getSize(); reviewId++) {
+            int productIndex = reviews.getProductID(reviewId);
+            stats.reviewCounts[productIndex]++;
+            stats.scoreSums[productIndex] += reviews.getScore(reviewId);
+            stats.helpfulnessNumeratorSums[productIndex] += reviews.getHelpfulnessNumerator(reviewId);
+            stats.helpfulnessDenominatorSums[productIndex] += reviews.getHelpfulnessDenominator(reviewId);
+        }
+        return stats;
+    }
+
+    public void writeObject(String fileName, String dirName) throws IOException {
+        DataOutputStream statsFile = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                dirName + File.separator + fileName)));
+        statsFile.writeInt(this.numOfProducts);
+        for (int count : this.reviewCounts) {
+            statsFile.writeInt(count);
+        }
+        for (int sum : this.scoreSums) {
+            statsFile.writeInt(sum);
+        }
+        for (long sum : this.helpfulnessNumeratorSums) {
+            statsFile.writeLong(sum);
+        }
+        for (long sum : this.helpfulnessDenominatorSums) {
+            statsFile.writeLong(sum);
+        }
+        statsFile.close();
+    }
+
+    /**
+     * maps the aggregates file, nothing is read until a product is queried
+     */
+    public static ProductStats readObject(String fileName, String dir) throws IOException {
+        return new ProductStats(new MappedFile(fileName, dir));
+    }
+
+    public int getSize() {
+        return this.numOfProducts;
+    }
+
+    public int getReviewCount(int productIndex) {
+        return this.statsFile.getInt(HEADER_SIZE + 4L * productIndex);
+    }
+
+    public int getScoreSum(int productIndex) {
+        return this.statsFile.getInt(this.scoreSumsStart + 4L * productIndex);
+    }
+
+    /**
+     * the average score of the reviews of the product, 0 if it has no reviews
+     */
+    public double getAverageScore(int productIndex) {
+        int count = this.getReviewCount(productIndex);
+        return count == 0 ? 0 : this.getScoreSum(productIndex) / (double)count;
+    }
+
+    /**
+     * the number of helpful votes the reviews of the product got, the sum of their helpfulness numerators
+     */
+    public long getHelpfulnessNumeratorSum(int productIndex) {
+        return this.statsFile.getLong(this.helpfulnessNumeratorSumsStart + 8L * productIndex);
+    }
+
+    /**
+     * the number of votes the reviews of the product got, the sum of their helpfulness denominators
+     */
+    public long getHelpfulnessDenominatorSum(int productIndex) {
+        return this.statsFile.getLong(this.helpfulnessDenominatorSumsStart + 8L * productIndex);
+    }
+
+    public double getMetric(int productIndex, Metric metric) {
+        switch (metric) {
+            case REVIEW_COUNT:
+                return this.getReviewCount(productIndex);
+            case AVERAGE_SCORE:
+                return this.getAverageScore(productIndex);
+            default:
+                return this.getHelpfulnessNumeratorSum(productIndex);
+        }
+    }
+}
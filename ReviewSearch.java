@@ -0,0 +1,165 @@
+package webdata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+public class ReviewSearch {
+
+    private IndexReader iReader;
+
+    /**
+     * Constructor
+     */
+    public ReviewSearch(IndexReader iReader) {
+        this.iReader = iReader;
+    }
+
+    /**
+     * Returns a list of the id-s of the k most highly ranked reviews for the given query, using the BM25
+     * ranking function. The list is sorted by the ranking, ties are broken by the review id.
+     * The posting lists are traversed with WAND: a review is scored only if the maximal impacts of the
+     * tokens that can still appear in it could get it into the top k, so most postings of common tokens
+     * are skipped
+     */
+    public Enumeration<Integer> bm25Search(Enumeration<String> query, int k) {
+        Vector<Integer> res = new Vector<>();
+        if (k <= 0) {
+            return res.elements();
+        }
+        LinkedHashMap<Integer, Integer> queryTokens = new LinkedHashMap<>();
+        while (query.hasMoreElements()) {
+            int tokenIndex = this.iReader.findTokenIndex(query.nextElement());
+            if (tokenIndex != -1) {
+                queryTokens.merge(tokenIndex, 1, Integer::sum);
+            }
+        }
+        int numOfReviews = this.iReader.getNumberOfReviews();
+        double avgReviewLength = this.iReader.getTokenSizeOfReviews() / (double)numOfReviews;
+        int numOfTerms = queryTokens.size();
+        PostingsCursor[] cursors = new PostingsCursor[numOfTerms];
+        double[] weights = new double[numOfTerms];
+        double[] upperBounds = new double[numOfTerms];
+        int[] order = new int[numOfTerms];
+        int term = 0;
+        for (Map.Entry<Integer, Integer> queryToken : queryTokens.entrySet()) {
+            int tokenIndex = queryToken.getKey();
+            int frequency = this.iReader.getTokenFrequency(tokenIndex);
+            double idf = Math.log(1 + (numOfReviews - frequency + 0.5) / (frequency + 0.5));
+            weights[term] = queryToken.getValue() * idf;
+            upperBounds[term] = weights[term] * this.iReader.getTokenMaxImpact(tokenIndex);
+            cursors[term] = this.iReader.getTokenCursor(tokenIndex);
+            cursors[term].nextDoc();
+            order[term] = term;
+            term++;
+        }
+
+        //a k of "all the reviews" is a normal call, the heap never needs more slots than there are reviews
+        TopScoreHeap topReviews = new TopScoreHeap(Math.min(k, numOfReviews));
+        while (true) {
+            sortByDocId(order, cursors);
+            //find the pivot, the first term where the sum of the upper bounds can beat the threshold
+            double threshold = topReviews.threshold(), boundsSum = 0;
+            int pivot = -1;
+            for (int i = 0; i < numOfTerms && cursors[order[i]].docId() != DocIdCursor.NO_MORE_DOCS; i++) {
+                boundsSum += upperBounds[order[i]];
+                if (boundsSum > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot == -1) {
+                break;
+            }
+            int pivotDoc = cursors[order[pivot]].docId();
+            if (cursors[order[0]].docId() == pivotDoc) {
+                int reviewLength = this.iReader.getReviewLength(pivotDoc);
+                double score = 0;
+                for (int i = 0; i < numOfTerms && cursors[order[i]].docId() == pivotDoc; i++) {
+                    PostingsCursor cursor = cursors[order[i]];
+                    score += weights[order[i]] * InvertedIndex.bm25Impact(cursor.freq(), reviewLength, avgReviewLength);
+                    cursor.nextDoc();
+                }
+                topReviews.offer(pivotDoc, score);
+            }
+            else {
+                //no review before the pivot review can get into the top k
+                for (int i = 0; i < pivot && cursors[order[i]].docId() < pivotDoc; i++) {
+                    cursors[order[i]].advance(pivotDoc);
+                }
+            }
+        }
+        for (int reviewId : topReviews.toSortedIds()) {
+            res.add(reviewId);
+        }
+        return res.elements();
+    }
+
+    /**
+     * Returns a list of the id-s of the k most highly ranked productIds for the given query.
+     * Every review that contains query tokens adds its BM25 score to its product, weighted by the
+     * review quality: its score out of 5 times its smoothed helpfulness ratio (numerator+1)/(denominator+2).
+     * The postings are accumulated term at a time into a hash table of the products they touch, so a query
+     * costs memory in proportion to its matches and not to the number of products
+     */
+    public Collection<String> productSearch(Enumeration<String> query, int k) {
+        ArrayList<String> res = new ArrayList<>();
+        if (k <= 0) {
+            return res;
+        }
+        int numOfReviews = this.iReader.getNumberOfReviews();
+        double avgReviewLength = this.iReader.getTokenSizeOfReviews() / (double)numOfReviews;
+        ArrayList<Integer> tokenIndexes = new ArrayList<>();
+        long numOfPostings = 0;
+        while (query.hasMoreElements()) {
+            int tokenIndex = this.iReader.findTokenIndex(query.nextElement());
+            if (tokenIndex != -1) {
+                tokenIndexes.add(tokenIndex);
+                numOfPostings += this.iReader.getTokenFrequency(tokenIndex);
+            }
+        }
+        //no more products are touched than there are postings, or than there are products
+        ScoreTable productScores = new ScoreTable((int)Math.min(numOfPostings, this.iReader.getNumberOfProducts()));
+
+        for (int tokenIndex : tokenIndexes) {
+            int frequency = this.iReader.getTokenFrequency(tokenIndex);
+            double idf = Math.log(1 + (numOfReviews - frequency + 0.5) / (frequency + 0.5));
+            PostingsCursor cursor = this.iReader.getTokenCursor(tokenIndex);
+            for (int reviewId = cursor.nextDoc(); reviewId != DocIdCursor.NO_MORE_DOCS; reviewId = cursor.nextDoc()) {
+                double quality = this.iReader.getReviewScore(reviewId) / 5.0 *
+                        (this.iReader.getReviewHelpfulnessNumerator(reviewId) + 1) /
+                        (this.iReader.getReviewHelpfulnessDenominator(reviewId) + 2.0);
+                double score = idf * InvertedIndex.bm25Impact(cursor.freq(), this.iReader.getReviewLength(reviewId),
+                        avgReviewLength) * quality;
+                productScores.add(this.iReader.getProductIndex(reviewId), score);
+            }
+        }
+
+        TopScoreHeap topProducts = new TopScoreHeap(Math.min(k, productScores.size()));
+        for (int i = 0; i < productScores.size(); i++) {
+            topProducts.offer(productScores.getKey(i), productScores.getScore(i));
+        }
+        for (int productIndex : topProducts.toSortedIds()) {
+            res.add(this.iReader.getProductIdByIndex(productIndex));
+        }
+        return res;
+    }
+
+    /**
+     * insertion sort of the term order by the current review of each cursor, queries have few terms
+     */
+    private static void sortByDocId(int[] order, DocIdCursor[] cursors) {
+        for (int i = 1; i < order.length; i++) {
+            int term = order[i];
+            int j = i - 1;
+            while (j >= 0 && cursors[order[j]].docId() > cursors[term].docId()) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = term;
+        }
+    }
+}
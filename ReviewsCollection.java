@@ -1,10 +1,18 @@
 package webdata;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.concurrent.locks.ReentrantLock;
 
 
+/**
+ * the metadata of the reviews. reviewsObj has the number of reviews and the number of tokens, and then one
+ * fixed width column for every field: the product ids (int), the helpfulness numerators (short), the helpfulness
+ * denominators (short), the scores (byte) and the lengths (short). the reader maps the file and reads it in place,
+ * so reading one field of all the reviews only touches the pages of its column
+ */
 public class ReviewsCollection {
+    private static final int HEADER_SIZE = 8;
 
     private int[] productIDs;
     private short[] helpfulnessNumerators;
@@ -15,6 +23,13 @@ public class ReviewsCollection {
     private int tableSize;
     private ReentrantLock numOfTokensLock = new ReentrantLock();
 
+    //used while the index is read
+    private MappedFile reviewsFile;
+    private long helpfulnessNumeratorsStart;
+    private long helpfulnessDenominatorsStart;
+    private long scoresStart;
+    private long lengthsStart;
+
 
     public ReviewsCollection(int size){
         productIDs = new int[size];
@@ -41,6 +56,28 @@ public class ReviewsCollection {
         }
     }
 
+    private ReviewsCollection(MappedFile reviewsFile) {
+        this.reviewsFile = reviewsFile;
+        this.tableSize = reviewsFile.getInt(0);
+        this.numOfTokens = reviewsFile.getInt(4);
+        this.helpfulnessNumeratorsStart = HEADER_SIZE + 4L * this.tableSize;
+        this.helpfulnessDenominatorsStart = this.helpfulnessNumeratorsStart + 2L * this.tableSize;
+        this.scoresStart = this.helpfulnessDenominatorsStart + 2L * this.tableSize;
+        this.lengthsStart = this.scoresStart + this.tableSize;
+    }
+
+    /**
+     * changes the number of reviews the collection holds, keeping the reviews that fit
+     */
+    void resize(int size) {
+        productIDs = Arrays.copyOf(productIDs, size);
+        helpfulnessNumerators = Arrays.copyOf(helpfulnessNumerators, size);
+        helpfulnessDenominators = Arrays.copyOf(helpfulnessDenominators, size);
+        scores = Arrays.copyOf(scores, size);
+        lengths = Arrays.copyOf(lengths, size);
+        this.tableSize = size;
+    }
+
     public int getNumOfTokens() {
         return this.numOfTokens;
     }
@@ -49,77 +86,67 @@ public class ReviewsCollection {
         return this.tableSize;
     }
 
-    private static byte[] convertIntToByte(int data){
-        byte[] newNumber = new byte[4];
-        newNumber[0] = (byte) ((data & 0xFF000000) >> 24);
-        newNumber[1] = (byte) ((data & 0x00FF0000) >> 16);
-        newNumber[2] = (byte) ((data & 0x0000FF00) >> 8);
-        newNumber[3] = (byte) (data & 0x000000FF);
-        return newNumber;
-    }
-    
-    private static byte[] convertShortToByte(short data){
-        byte[] newNumber = new byte[2];
-        newNumber[0] = (byte) ((data & 0x0000FF00) >> 8);
-        newNumber[1] = (byte) (data & 0x000000FF);
-        return newNumber;
-    }
-
     public void writeObject(String fileName, String dirName) throws IOException{
-        File f = new File(dirName + File.separator + fileName);
-        if (f.exists()) {
-            f.delete();
+        DataOutputStream reviewFile = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                dirName + File.separator + fileName)));
+        reviewFile.writeInt(this.tableSize);
+        reviewFile.writeInt(this.numOfTokens);
+        for (int i = 0; i < this.tableSize; i++) {
+            reviewFile.writeInt(this.productIDs[i]);
         }
-        BufferedOutputStream reviewFile = new BufferedOutputStream(new FileOutputStream(dirName + File.separator + fileName));
-        reviewFile.write(convertIntToByte(this.tableSize));
         for (int i = 0; i < this.tableSize; i++) {
-            reviewFile.write(convertIntToByte(this.productIDs[i]));
-            reviewFile.write(convertShortToByte(this.helpfulnessNumerators[i]));
-            reviewFile.write(convertShortToByte(this.helpfulnessDenominators[i]));
-            reviewFile.write(this.scores[i]);
-            reviewFile.write(convertShortToByte(this.lengths[i]));
+            reviewFile.writeShort(this.helpfulnessNumerators[i]);
+        }
+        for (int i = 0; i < this.tableSize; i++) {
+            reviewFile.writeShort(this.helpfulnessDenominators[i]);
+        }
+        reviewFile.write(this.scores, 0, this.tableSize);
+        for (int i = 0; i < this.tableSize; i++) {
+            reviewFile.writeShort(this.lengths[i]);
         }
         reviewFile.close();
     }
 
+    /**
+     * maps the reviews file, nothing is read until a review is queried
+     */
     public static ReviewsCollection readObject(String fileName, String dir) throws IOException {
-        RandomAccessFile reviewFile = new RandomAccessFile(dir + File.separator + fileName, "r");
-        ReviewsCollection reviews = new ReviewsCollection(reviewFile.readInt());
-
-        int productID;
-        short length, helpfulnessNumerator, helpfulnessDenominator;
-        byte score;
-
-        for(int i = 0; i < reviews.tableSize; i++) {
-            productID = reviewFile.readInt();
-            helpfulnessNumerator = reviewFile.readShort();
-            helpfulnessDenominator = reviewFile.readShort();
-            score = reviewFile.readByte();
-            length = reviewFile.readShort();
-            reviews.addReview(productID, helpfulnessNumerator, helpfulnessDenominator, score, length, i);
-        }
-        reviewFile.close();
-        return reviews;
+        return new ReviewsCollection(new MappedFile(fileName, dir));
     }
 
 
     public int getProductID(int index) {
+        if (this.reviewsFile != null) {
+            return this.reviewsFile.getInt(HEADER_SIZE + 4L * (index - 1));
+        }
         return this.productIDs[index-1];
     }
 
     public byte getScore(int index) {
+        if (this.reviewsFile != null) {
+            return this.reviewsFile.get(this.scoresStart + index - 1);
+        }
         return this.scores[index-1];
     }
 
     public short getHelpfulnessNumerator(int index) {
+        if (this.reviewsFile != null) {
+            return this.reviewsFile.getShort(this.helpfulnessNumeratorsStart + 2L * (index - 1));
+        }
         return this.helpfulnessNumerators[index-1];
     }
 
     public short getHelpfulnessDenominator(int index) {
+        if (this.reviewsFile != null) {
+            return this.reviewsFile.getShort(this.helpfulnessDenominatorsStart + 2L * (index - 1));
+        }
         return helpfulnessDenominators[index-1];
     }
 
     public short getLength(int index) {
+        if (this.reviewsFile != null) {
+            return this.reviewsFile.getShort(this.lengthsStart + 2L * (index - 1));
+        }
         return lengths[index-1];
     }
 }
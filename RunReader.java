@@ -0,0 +1,105 @@
+package webdata;
+
+import java.io.*;
+import java.util.concurrent.Future;
+
+/**
+ * reads a sorted run of packed pairs that was written by RunWriter, decoding the pairs on the fly. the run
+ * is read with two buffers: while the pairs of one block are decoded, the next block is read in the background
+ */
+public class RunReader {
+    private static final int BLOCK_SIZE = 4096;
+    //room in front of a block for the bytes of a pair that started at the end of the previous block
+    private static final int HEAD_ROOM = RunWriter.MAX_PAIR_SIZE;
+
+    private InputStream reader;
+    private MergeIO mergeIO;
+    private Future<Integer> pendingRead;
+    private byte[] inputBuffer = new byte[HEAD_ROOM + BLOCK_SIZE];
+    private byte[] prefetchBuffer = new byte[HEAD_ROOM + BLOCK_SIZE];
+    private int position = HEAD_ROOM;
+    private int length = HEAD_ROOM;
+    private boolean endOfRun = false;
+    private int prevTermId = 0;
+    private int prevReviewId = 0;
+
+    public RunReader(String path, MergeIO mergeIO) throws IOException {
+        this.reader = new FileInputStream(path);
+        this.mergeIO = mergeIO;
+        this.prefetch();
+    }
+
+    public boolean hasNextPair() throws IOException {
+        if (this.length - this.position < RunWriter.MAX_PAIR_SIZE && !this.endOfRun) {
+            this.nextBlock();
+        }
+        return this.position < this.length;
+    }
+
+    /**
+     * decodes the next pair, hasNextPair must be called before
+     */
+    public long nextPair() {
+        int termGap = this.readNumber();
+        int reviewId = this.readNumber();
+        if (termGap == 0) {
+            reviewId += this.prevReviewId;
+        }
+        this.prevTermId += termGap;
+        this.prevReviewId = reviewId;
+        return ((long)this.prevTermId << 32) | (reviewId & 0xFFFFFFFFL);
+    }
+
+    public void close() throws IOException {
+        if (this.pendingRead != null) {
+            this.mergeIO.awaitRead(this.pendingRead);
+        }
+        this.reader.close();
+    }
+
+    private int readNumber() {
+        int firstByte = this.inputBuffer[this.position++];
+        int number = firstByte & 0x3F;
+        for (int numOfBytes = (firstByte >> 6) & 3; numOfBytes > 0; numOfBytes--) {
+            number = (number << 8) | (this.inputBuffer[this.position++] & 0xFF);
+        }
+        return number;
+    }
+
+    /**
+     * starts reading the next block into the prefetch buffer, until it is full or the run ends
+     */
+    private void prefetch() {
+        byte[] block = this.prefetchBuffer;
+        this.pendingRead = this.mergeIO.submit(() -> {
+            int bytesRead, blockLength = 0;
+            while (blockLength < BLOCK_SIZE &&
+                    (bytesRead = this.reader.read(block, HEAD_ROOM + blockLength, BLOCK_SIZE - blockLength)) != -1) {
+                blockLength += bytesRead;
+            }
+            return blockLength;
+        });
+    }
+
+    /**
+     * waits for the prefetched block, puts the bytes that were not decoded yet right in front of it so
+     * a pair is never split between two blocks, and starts reading the block after it
+     */
+    private void nextBlock() throws IOException {
+        int blockLength = this.mergeIO.awaitRead(this.pendingRead);
+        this.pendingRead = null;
+        int leftover = this.length - this.position;
+        byte[] block = this.prefetchBuffer;
+        System.arraycopy(this.inputBuffer, this.position, block, HEAD_ROOM - leftover, leftover);
+        this.prefetchBuffer = this.inputBuffer;
+        this.inputBuffer = block;
+        this.position = HEAD_ROOM - leftover;
+        this.length = HEAD_ROOM + blockLength;
+        if (blockLength < BLOCK_SIZE) {
+            this.endOfRun = true;
+        }
+        else {
+            this.prefetch();
+        }
+    }
+}
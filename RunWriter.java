@@ -0,0 +1,67 @@
+package webdata;
+
+import java.io.*;
+import java.util.concurrent.Future;
+
+/**
+ * writes a sorted run of packed pairs to a file. every pair is written as the gap of its term id from the
+ * previous term id and then its review id, as a gap from the previous review id if the term id is the same
+ * or as is if it is a new term id. both numbers use the 2 bit length prefix format of the posting lists.
+ * the output is double buffered: a full block is written in the background while the next one is filled
+ */
+public class RunWriter implements PairConsumer {
+    private static final int BLOCK_SIZE = 4096;
+    static final int MAX_PAIR_SIZE = 8;
+
+    private OutputStream writer;
+    private MergeIO mergeIO;
+    private Future<?> pendingWrite;
+    private byte[] outputBuffer = new byte[BLOCK_SIZE];
+    private byte[] writtenBuffer = new byte[BLOCK_SIZE];
+    private int bufferOffset = 0;
+    private int prevTermId = 0;
+    private int prevReviewId = 0;
+
+    public RunWriter(String path, MergeIO mergeIO) throws IOException {
+        this.writer = new FileOutputStream(path);
+        this.mergeIO = mergeIO;
+    }
+
+    @Override
+    public void addPair(long pair) throws IOException {
+        int termId = (int)(pair >>> 32);
+        int reviewId = (int)pair;
+        if (this.bufferOffset + MAX_PAIR_SIZE > BLOCK_SIZE) {
+            this.flush();
+        }
+        this.bufferOffset = InvertedIndex.encodeNumber(termId - this.prevTermId, this.outputBuffer, this.bufferOffset);
+        this.bufferOffset = InvertedIndex.encodeNumber(termId == this.prevTermId ? reviewId - this.prevReviewId : reviewId,
+                this.outputBuffer, this.bufferOffset);
+        this.prevTermId = termId;
+        this.prevReviewId = reviewId;
+    }
+
+    public void close() throws IOException {
+        this.flush();
+        this.mergeIO.awaitWrite(this.pendingWrite);
+        this.writer.close();
+    }
+
+    /**
+     * waits for the previous block to be written, starts writing the current block and swaps the buffers
+     */
+    private void flush() throws IOException {
+        if (this.pendingWrite != null) {
+            this.mergeIO.awaitWrite(this.pendingWrite);
+        }
+        byte[] block = this.outputBuffer;
+        int length = this.bufferOffset;
+        this.pendingWrite = this.mergeIO.submit(() -> {
+            this.writer.write(block, 0, length);
+            return null;
+        });
+        this.outputBuffer = this.writtenBuffer;
+        this.writtenBuffer = block;
+        this.bufferOffset = 0;
+    }
+}
@@ -0,0 +1,76 @@
+package webdata;
+
+import java.util.Arrays;
+
+/**
+ * sums scores per int key (a product row) with an open addressing hash table. the keys and their sums are kept
+ * densely in the order they were first added, so the table is sized to the keys that were actually scored and
+ * not to the whole dictionary, and going over the scored keys does not scan empty slots
+ */
+public class ScoreTable {
+    private int[] slots;
+    private int[] keys;
+    private double[] scores;
+    private int size = 0;
+
+    public ScoreTable(int expectedSize) {
+        int capacity = Math.max(expectedSize, 8);
+        this.slots = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        this.keys = new int[capacity];
+        this.scores = new double[capacity];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int getKey(int i) {
+        return this.keys[i];
+    }
+
+    public double getScore(int i) {
+        return this.scores[i];
+    }
+
+    private static int hash(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * adds score to the sum of the key, a key that was not added before starts from 0
+     */
+    public void add(int key, double score) {
+        int mask = this.slots.length - 1;
+        int slot = hash(key) & mask;
+        for (; this.slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (this.keys[this.slots[slot] - 1] == key) {
+                this.scores[this.slots[slot] - 1] += score;
+                return;
+            }
+        }
+        if (this.size == this.keys.length) {
+            this.keys = Arrays.copyOf(this.keys, this.size * 2);
+            this.scores = Arrays.copyOf(this.scores, this.size * 2);
+        }
+        this.keys[this.size] = key;
+        this.scores[this.size] = score;
+        //the slots hold the index of the key plus one, 0 is an empty slot
+        this.slots[slot] = ++this.size;
+        if (this.size * 2 > this.slots.length) {
+            this.rehash();
+        }
+    }
+
+    private void rehash() {
+        this.slots = new int[this.slots.length * 2];
+        int mask = this.slots.length - 1;
+        for (int i = 0; i < this.size; i++) {
+            int slot = hash(this.keys[i]) & mask;
+            while (this.slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            this.slots[slot] = i + 1;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package webdata;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * maps terms to ids (the order they were added in) with an open addressing hash table.
+ * the characters of all the terms are kept one after another in a single array and the table only holds
+ * primitive (hash, id) slots, so a lookup compares characters in place and does not touch String objects
+ */
+public class TermTable {
+    private char[] chars;
+    private int[] termStarts;
+    private int[] slotIds;
+    private int[] slotHashes;
+    private int size = 0;
+    private int charsLength = 0;
+
+    public TermTable(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+        this.slotIds = new int[capacity];
+        this.slotHashes = new int[capacity];
+        this.termStarts = new int[Math.max(expectedSize, 8) + 1];
+        this.chars = new char[Math.max(expectedSize, 8) * 8];
+    }
+
+    /**
+     * a table where the id of every term is its index in the given list
+     */
+    public static TermTable of(List<String> terms) {
+        TermTable table = new TermTable(terms.size());
+        for (String term : terms) {
+            table.add(term);
+        }
+        return table;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    private static int hash(CharSequence term) {
+        int hash = 0;
+        for (int i = 0; i < term.length(); i++) {
+            hash = 31 * hash + term.charAt(i);
+        }
+        return mix(hash);
+    }
+
+    /**
+     * spreads the bits of the polynomial hash so consecutive slots are not filled by similar terms
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    private static int hash(char[] buffer, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        return mix(hash);
+    }
+
+    private boolean termEquals(int id, CharSequence term) {
+        int start = this.termStarts[id];
+        if (this.termStarts[id + 1] - start != term.length()) {
+            return false;
+        }
+        for (int i = 0; i < term.length(); i++) {
+            if (this.chars[start + i] != term.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean termEquals(int id, char[] buffer, int offset, int length) {
+        int start = this.termStarts[id];
+        if (this.termStarts[id + 1] - start != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (this.chars[start + i] != buffer[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * returns the term with the given id
+     */
+    public String getTerm(int id) {
+        return new String(this.chars, this.termStarts[id], this.termStarts[id + 1] - this.termStarts[id]);
+    }
+
+    /**
+     * returns the id of the term, -1 if it is not in the table
+     */
+    public int get(CharSequence term) {
+        int hash = hash(term);
+        int mask = this.slotIds.length - 1;
+        for (int slot = hash & mask; this.slotIds[slot] != 0; slot = (slot + 1) & mask) {
+            if (this.slotHashes[slot] == hash && this.termEquals(this.slotIds[slot] - 1, term)) {
+                return this.slotIds[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * returns the id of the term in buffer[offset, offset + length), -1 if it is not in the table
+     */
+    public int get(char[] buffer, int offset, int length) {
+        int hash = hash(buffer, offset, length);
+        int mask = this.slotIds.length - 1;
+        for (int slot = hash & mask; this.slotIds[slot] != 0; slot = (slot + 1) & mask) {
+            if (this.slotHashes[slot] == hash && this.termEquals(this.slotIds[slot] - 1, buffer, offset, length)) {
+                return this.slotIds[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * adds the term if it is not in the table yet, and returns its id
+     */
+    public int add(CharSequence term) {
+        int hash = hash(term);
+        int mask = this.slotIds.length - 1;
+        int slot = hash & mask;
+        for (; this.slotIds[slot] != 0; slot = (slot + 1) & mask) {
+            if (this.slotHashes[slot] == hash && this.termEquals(this.slotIds[slot] - 1, term)) {
+                return this.slotIds[slot] - 1;
+            }
+        }
+        int id = this.size;
+        if (this.charsLength + term.length() > this.chars.length) {
+            this.chars = Arrays.copyOf(this.chars, Math.max(this.chars.length * 2, this.charsLength + term.length()));
+        }
+        for (int i = 0; i < term.length(); i++) {
+            this.chars[this.charsLength++] = term.charAt(i);
+        }
+        if (id + 2 > this.termStarts.length) {
+            this.termStarts = Arrays.copyOf(this.termStarts, this.termStarts.length * 2);
+        }
+        this.termStarts[id + 1] = this.charsLength;
+        this.slotIds[slot] = id + 1;
+        this.slotHashes[slot] = hash;
+        this.size++;
+        if (this.size * 2 > this.slotIds.length) {
+            this.rehash();
+        }
+        return id;
+    }
+
+    /**
+     * adds the term in buffer[offset, offset + length) if it is not in the table yet, and returns its id
+     */
+    public int add(char[] buffer, int offset, int length) {
+        int hash = hash(buffer, offset, length);
+        int mask = this.slotIds.length - 1;
+        int slot = hash & mask;
+        for (; this.slotIds[slot] != 0; slot = (slot + 1) & mask) {
+            if (this.slotHashes[slot] == hash && this.termEquals(this.slotIds[slot] - 1, buffer, offset, length)) {
+                return this.slotIds[slot] - 1;
+            }
+        }
+        int id = this.size;
+        if (this.charsLength + length > this.chars.length) {
+            this.chars = Arrays.copyOf(this.chars, Math.max(this.chars.length * 2, this.charsLength + length));
+        }
+        System.arraycopy(buffer, offset, this.chars, this.charsLength, length);
+        this.charsLength += length;
+        if (id + 2 > this.termStarts.length) {
+            this.termStarts = Arrays.copyOf(this.termStarts, this.termStarts.length * 2);
+        }
+        this.termStarts[id + 1] = this.charsLength;
+        this.slotIds[slot] = id + 1;
+        this.slotHashes[slot] = hash;
+        this.size++;
+        if (this.size * 2 > this.slotIds.length) {
+            this.rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        int[] oldIds = this.slotIds;
+        int[] oldHashes = this.slotHashes;
+        this.slotIds = new int[oldIds.length * 2];
+        this.slotHashes = new int[oldIds.length * 2];
+        int mask = this.slotIds.length - 1;
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] != 0) {
+                int slot = oldHashes[i] & mask;
+                while (this.slotIds[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                this.slotIds[slot] = oldIds[i];
+                this.slotHashes[slot] = oldHashes[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package webdata;
+
+/**
+ * splits review lines into tokens without regular expressions and without a String per token.
+ * the tokens are exactly the ones of line.replaceFirst("\\w+/\\w+:\\s*", "").toLowerCase().split("[\\W|_]+"),
+ * without the empty ones and cut to MAX_TOKEN_LENGTH characters: runs of ascii letters and digits, lower cased.
+ * toLowerCase() of the regex path uses the default locale, and the two only agree on a locale without the
+ * Turkish (or Azeri) rules, where I is lower cased to a dotless i. TokenizerBenchmark checks the two paths
+ */
+public class Tokenizer {
+    static final int MAX_TOKEN_LENGTH = 256;
+
+    private char[] token = new char[MAX_TOKEN_LENGTH];
+    private int tokenLength;
+    private String line;
+    private int position;
+    private int fieldPrefixStart;
+    private int fieldPrefixEnd;
+
+    /**
+     * starts tokenizing the given line. the first "field/name:" prefix of the line is skipped
+     */
+    public void reset(String line) {
+        this.line = line;
+        this.position = 0;
+        this.fieldPrefixStart = findFieldPrefix(line);
+        this.fieldPrefixEnd = this.fieldPrefixStart == -1 ? -1 : getFieldPrefixEnd(line, this.fieldPrefixStart);
+    }
+
+    /**
+     * moves to the next token of the line, returns false if there are no more tokens.
+     * the token is in getToken()[0, getTokenLength()) until the next call
+     */
+    public boolean nextToken() {
+        this.tokenLength = 0;
+        boolean inToken = false, endsToken;
+        int length = this.line.length();
+        while (this.position < length) {
+            if (this.position == this.fieldPrefixStart) {
+                //the prefix is removed from the line, the characters around it are joined
+                this.position = this.fieldPrefixEnd;
+                continue;
+            }
+            char c = this.line.charAt(this.position++);
+            char lower;
+            endsToken = false;
+            if (c >= 'A' && c <= 'Z') {
+                lower = (char)(c + ('a' - 'A'));
+            }
+            else if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                lower = c;
+            }
+            else if (c == '\u212A') {
+                //the kelvin sign is lower cased to the letter k
+                lower = 'k';
+            }
+            else if (c == '\u0130') {
+                //the dotted capital i is lower cased to i followed by a combining dot, which is not a word character
+                lower = 'i';
+                endsToken = true;
+            }
+            else {
+                if (inToken) {
+                    return true;
+                }
+                continue;
+            }
+            if (this.tokenLength < MAX_TOKEN_LENGTH) {
+                this.token[this.tokenLength++] = lower;
+            }
+            inToken = true;
+            if (endsToken) {
+                return true;
+            }
+        }
+        return inToken;
+    }
+
+    public char[] getToken() {
+        return this.token;
+    }
+
+    public int getTokenLength() {
+        return this.tokenLength;
+    }
+
+    /**
+     * returns the line without its first "field/name:" prefix, the same as line.replaceFirst("\\w+/\\w+:\\s*", "")
+     */
+    public static String stripField(String line) {
+        int start = findFieldPrefix(line);
+        if (start == -1) {
+            return line;
+        }
+        int end = getFieldPrefixEnd(line, start);
+        if (start == 0) {
+            return line.substring(end);
+        }
+        return line.substring(0, start) + line.substring(end);
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * the position of the leftmost match of \w+/\w+: in the line, -1 if there is none.
+     * a match can only start at the beginning of a run of word characters, and if it does not start
+     * there it does not start anywhere inside the run
+     */
+    private static int findFieldPrefix(String line) {
+        int length = line.length();
+        int i = 0;
+        while (i < length) {
+            if (!isWordChar(line.charAt(i))) {
+                i++;
+                continue;
+            }
+            int j = i;
+            while (j < length && isWordChar(line.charAt(j))) {
+                j++;
+            }
+            if (j < length && line.charAt(j) == '/') {
+                int k = j + 1;
+                while (k < length && isWordChar(line.charAt(k))) {
+                    k++;
+                }
+                if (k > j + 1 && k < length && line.charAt(k) == ':') {
+                    return i;
+                }
+            }
+            i = j;
+        }
+        return -1;
+    }
+
+    /**
+     * the position right after the prefix that starts at start, including the white spaces after the colon
+     */
+    private static int getFieldPrefixEnd(String line, int start) {
+        int end = line.indexOf(':', start) + 1;
+        while (end < line.length() && isSpace(line.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,189 @@
+package webdata;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * checks that Tokenizer gives exactly the tokens of the regex path it replaced, and measures the tokens per
+ * second of both. usage: TokenizerBenchmark [reviews file]. the hand written cases and a seeded fuzz run are
+ * always checked, the lines of the reviews file (if given) are checked and timed as well.
+ * exits with 1 on the first line where the two paths differ
+ */
+public class TokenizerBenchmark {
+    private static final String REGEX = "\\w+/\\w+:\\s*";
+    private static final int FUZZ_LINES = 1000000;
+    private static final int ROUNDS = 5;
+
+    /**
+     * the cases the tokenizer handles by hand instead of by the regex
+     */
+    private static final String[] CASES = {
+            "review/text: This is a Great product, I'd buy_it again!",
+            "review/summary:no space after the colon",
+            "before the prefix review/text: after it",
+            "joined review/text:here",
+            "two/prefix: only/the: first is removed",
+            "a/b: c/d:",
+            "/x: a/: _/_: __a__b",
+            "kelvin \u212A and \u212Aelvin",
+            "dotted \u0130stanbul and \u0130\u0130 and x\u0130y",
+            "accents caf\u00E9 \u00C9t\u00E9 na\u00EFve \u0131",
+            "digits 123abc 0x1F 4/5: stars",
+            "tabs\tand\nnew\u000Blines\fand\rreturns",
+            "",
+            "   ",
+            "___",
+    };
+
+    private static List<String> regexTokens(String line) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : line.replaceFirst(REGEX, "").toLowerCase().split("[\\W|_]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token.length() > Tokenizer.MAX_TOKEN_LENGTH ?
+                        token.substring(0, Tokenizer.MAX_TOKEN_LENGTH) : token);
+            }
+        }
+        return tokens;
+    }
+
+    private static List<String> tokenizerTokens(Tokenizer tokenizer, String line) {
+        List<String> tokens = new ArrayList<>();
+        tokenizer.reset(line);
+        while (tokenizer.nextToken()) {
+            tokens.add(new String(tokenizer.getToken(), 0, tokenizer.getTokenLength()));
+        }
+        return tokens;
+    }
+
+    private static void check(Tokenizer tokenizer, String line) {
+        List<String> expected = regexTokens(line);
+        List<String> tokens = tokenizerTokens(tokenizer, line);
+        if (!expected.equals(tokens)) {
+            System.err.println("tokens differ for [" + line + "]: regex " + expected + " tokenizer " + tokens);
+            System.exit(1);
+        }
+        if (!Tokenizer.stripField(line).equals(line.replaceFirst(REGEX, ""))) {
+            System.err.println("stripField differs for [" + line + "]");
+            System.exit(1);
+        }
+    }
+
+    private static List<String> getCases() {
+        List<String> lines = new ArrayList<>();
+        for (String line : CASES) {
+            lines.add(line);
+        }
+        StringBuilder longToken = new StringBuilder("review/text: short ");
+        for (int i = 0; i < 3 * Tokenizer.MAX_TOKEN_LENGTH; i++) {
+            longToken.append((char)('a' + i % 26));
+        }
+        lines.add(longToken.append(" tail").toString());
+        lines.add(longToken.substring(0, 19 + Tokenizer.MAX_TOKEN_LENGTH));
+        lines.add(longToken.substring(0, 19 + Tokenizer.MAX_TOKEN_LENGTH + 1));
+        return lines;
+    }
+
+    /**
+     * random short lines over the characters where the two paths could differ
+     */
+    private static List<String> getFuzzLines() {
+        String alphabet = "aZ09_/: \t.,-K\u212A\u0130\u00E9\u00C9\u0131ab/cd:x";
+        Random random = new Random(1);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < FUZZ_LINES; i++) {
+            StringBuilder line = new StringBuilder();
+            for (int length = random.nextInt(30); length > 0; length--) {
+                line.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    private static List<String> readLines(String fileName) throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        reader.close();
+        return lines;
+    }
+
+    /**
+     * a synthetic review text, used for the timing when no reviews file is given
+     */
+    private static List<String> getSyntheticLines() {
+        List<String> lines = new ArrayList<>();
+        StringBuilder line = new StringBuilder("review/text: ");
+        for (int i = 0; i < 200; i++) {
+            line.append("This is a Great product, I'd buy_it again! ");
+        }
+        for (int i = 0; i < 5000; i++) {
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    private static void time(List<String> lines) {
+        Tokenizer tokenizer = new Tokenizer();
+        for (int round = 0; round < ROUNDS; round++) {
+            long regexCount = 0, tokenizerCount = 0;
+            long start = System.nanoTime();
+            for (String line : lines) {
+                for (String token : line.replaceFirst(REGEX, "").toLowerCase().split("[\\W|_]+")) {
+                    if (!token.isEmpty()) {
+                        regexCount++;
+                    }
+                }
+            }
+            long regexTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (String line : lines) {
+                tokenizer.reset(line);
+                while (tokenizer.nextToken()) {
+                    tokenizerCount++;
+                }
+            }
+            long tokenizerTime = System.nanoTime() - start;
+            if (regexCount != tokenizerCount) {
+                System.err.println("the two paths counted different numbers of tokens");
+                System.exit(1);
+            }
+            System.out.printf("round %d: regex %.1fM tokens/s, tokenizer %.1fM tokens/s (%d tokens)%n", round + 1,
+                    regexCount * 1e3 / regexTime, tokenizerCount * 1e3 / tokenizerTime, tokenizerCount);
+        }
+    }
+
+    public static void main(String[] args) {
+        Tokenizer tokenizer = new Tokenizer();
+        for (String line : getCases()) {
+            check(tokenizer, line);
+        }
+        System.out.println("hand written cases: ok");
+        for (String line : getFuzzLines()) {
+            check(tokenizer, line);
+        }
+        System.out.println(FUZZ_LINES + " fuzz lines: ok");
+        List<String> lines;
+        try {
+            lines = args.length > 0 ? readLines(args[0]) : getSyntheticLines();
+        } catch (IOException e) {
+            System.err.println("IO Exception Error");
+            System.exit(1);
+            return;
+        }
+        if (args.length > 0) {
+            for (String line : lines) {
+                check(tokenizer, line);
+            }
+            System.out.println(lines.size() + " lines of " + args[0] + ": ok");
+        }
+        time(lines);
+    }
+}
@@ -0,0 +1,94 @@
+package webdata;
+
+/**
+ * keeps the k ids with the highest scores, ties are broken in favor of the smaller id.
+ * a min heap over primitive arrays, so offering a candidate allocates nothing
+ */
+public class TopScoreHeap {
+    private int[] ids;
+    private double[] scores;
+    private int size = 0;
+
+    public TopScoreHeap(int k) {
+        this.ids = new int[k];
+        this.scores = new double[k];
+    }
+
+    public boolean isFull() {
+        return this.size == this.ids.length;
+    }
+
+    /**
+     * the score a new candidate has to beat to enter the heap
+     */
+    public double threshold() {
+        return this.isFull() && this.size > 0 ? this.scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * true if (id1, score1) is ranked below (id2, score2)
+     */
+    private static boolean isWorse(int id1, double score1, int id2, double score2) {
+        return score1 < score2 || (score1 == score2 && id1 > id2);
+    }
+
+    public void offer(int id, double score) {
+        if (this.ids.length == 0) {
+            return;
+        }
+        if (this.size < this.ids.length) {
+            int i = this.size++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!isWorse(id, score, this.ids[parent], this.scores[parent])) {
+                    break;
+                }
+                this.ids[i] = this.ids[parent];
+                this.scores[i] = this.scores[parent];
+                i = parent;
+            }
+            this.ids[i] = id;
+            this.scores[i] = score;
+        }
+        else if (isWorse(this.ids[0], this.scores[0], id, score)) {
+            this.siftDown(id, score);
+        }
+    }
+
+    private void siftDown(int id, double score) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= this.size) {
+                break;
+            }
+            if (child + 1 < this.size && isWorse(this.ids[child + 1], this.scores[child + 1], this.ids[child],
+                    this.scores[child])) {
+                child++;
+            }
+            if (!isWorse(this.ids[child], this.scores[child], id, score)) {
+                break;
+            }
+            this.ids[i] = this.ids[child];
+            this.scores[i] = this.scores[child];
+            i = child;
+        }
+        this.ids[i] = id;
+        this.scores[i] = score;
+    }
+
+    /**
+     * empties the heap and returns its ids from the highest score to the lowest
+     */
+    public int[] toSortedIds() {
+        int[] sortedIds = new int[this.size];
+        while (this.size > 0) {
+            sortedIds[this.size - 1] = this.ids[0];
+            this.size--;
+            if (this.size > 0) {
+                this.siftDown(this.ids[this.size], this.scores[this.size]);
+            }
+        }
+        return sortedIds;
+    }
+}